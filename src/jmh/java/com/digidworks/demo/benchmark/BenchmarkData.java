@@ -0,0 +1,102 @@
+package com.digidworks.demo.benchmark;
+
+import com.digidworks.demo.model.ColumnType;
+import com.digidworks.demo.model.Dataset;
+import com.digidworks.demo.model.DatasetChunk;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Synthetic datasets for the benchmarks: a date, a low-cardinality category, a decimal value and a free text label.
+ */
+final class BenchmarkData {
+
+    static final List<String> HEADER = List.of("date", "category", "value", "label");
+
+    static final int CHUNK_SIZE = 1000;
+
+    private static final LocalDate FIRST_DATE = LocalDate.of(2000, 1, 1);
+
+    private BenchmarkData() {
+    }
+
+    static List<String> row(int i) {
+        return Arrays.asList(
+                FIRST_DATE.plusDays(i % 7300).toString(),
+                "category-" + (i % 50),
+                (i % 1000) + "." + (i % 97),
+                "row " + i
+        );
+    }
+
+    static byte[] csv(int rows) {
+        StringBuilder csv = new StringBuilder(rows * 48);
+        csv.append(String.join(",", HEADER)).append('\n');
+
+        for (int i = 0; i < rows; i++) {
+            csv.append(String.join(",", row(i))).append('\n');
+        }
+
+        return csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes the rows into chunks that hold their payload only, as chunks read from the database do.
+     *
+     * @param rows
+     * @return
+     */
+    static List<DatasetChunk> chunks(int rows) {
+        List<DatasetChunk> chunks = new ArrayList<>();
+
+        for (int first = 0; first < rows; first += CHUNK_SIZE) {
+            List<List<String>> batch = new ArrayList<>(CHUNK_SIZE);
+
+            for (int i = first; i < Math.min(first + CHUNK_SIZE, rows); i++) {
+                batch.add(row(i));
+            }
+
+            chunks.add(stored(DatasetChunk.encode("benchmark", null, chunks.size(), first, batch, HEADER.size())));
+        }
+
+        return chunks;
+    }
+
+    /**
+     * A copy of the chunk as it is read from the database: the payload only, decoded on first access.
+     *
+     * @param chunk
+     * @return
+     */
+    static DatasetChunk stored(DatasetChunk chunk) {
+        return new DatasetChunk(chunk.getId(), chunk.getDatasetId(), chunk.getGeneration(), chunk.getChunkNo(),
+                chunk.getFirstRow(), chunk.getRowCount(), chunk.getPayload(), null);
+    }
+
+    static Dataset dataset(List<DatasetChunk> chunks, int rows) {
+        List<ColumnType> columnTypes = new ArrayList<>(Collections.nCopies(HEADER.size(), null));
+
+        for (DatasetChunk chunk : chunks) {
+            for (int i = 0; i < columnTypes.size(); i++) {
+                columnTypes.set(i, chunk.getColumns().get(i).getType().merge(columnTypes.get(i)));
+            }
+        }
+
+        Dataset dataset = new Dataset();
+        dataset.setId("benchmark");
+        dataset.setName("benchmark");
+        dataset.setRows(rows);
+        dataset.setCreatedAt(new Date());
+        dataset.setModifiedAt(dataset.getCreatedAt());
+        dataset.setHeader(HEADER);
+        dataset.setColumnTypes(columnTypes);
+
+        return dataset;
+    }
+}
@@ -0,0 +1,229 @@
+package com.digidworks.demo.benchmark;
+
+import com.digidworks.demo.dto.DataPoint;
+import com.digidworks.demo.model.ColumnChunk;
+import com.digidworks.demo.model.Dataset;
+import com.digidworks.demo.model.DatasetChunk;
+import com.digidworks.demo.model.Visualization;
+import com.digidworks.demo.model.VisualizationAggregate;
+import com.digidworks.demo.service.ChartService;
+import com.digidworks.demo.service.DatasetStorageService;
+import com.digidworks.demo.service.VisualizationAggregateService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Chart data of a visualization for every aggregation mode, written as JSON the same way the chart data endpoint
+ * does. The chunks are served from memory and the chart cache is disabled, so only the computation is measured.
+ * Aggregated modes are measured both with and without a materialized aggregate, and against the boxed loop the chart
+ * data was computed with before the primitive group-by kernel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ChartServiceBenchmark {
+
+    public enum AggregationMode {NONE, DOWNSAMPLED, X_SUM, X_AVG, Y_SUM, Y_AVG}
+
+    @Param({"100000", "1000000"})
+    private int rows;
+
+    @Param
+    private AggregationMode mode;
+
+    /**
+     * Whether aggregates are read as if materialized, or computed on every read.
+     */
+    @Param({"false", "true"})
+    private boolean materialized;
+
+    private ChartService chartService;
+    private InMemoryStorage storage;
+    private Visualization visualization;
+    private Integer maxPoints;
+    private ObjectMapper objectMapper;
+
+    @Setup
+    public void setup() {
+        List<DatasetChunk> chunks = BenchmarkData.chunks(rows);
+        Dataset dataset = BenchmarkData.dataset(chunks, rows);
+
+        storage = new InMemoryStorage(chunks);
+        VisualizationAggregateService aggregates = materialized ? new MaterializedAggregates() : new ComputedAggregates();
+        ReflectionTestUtils.setField(aggregates, "datasetStorageService", storage);
+        ReflectionTestUtils.setField(aggregates, "parallelThreshold", 100000);
+
+        chartService = new ChartService();
+        ReflectionTestUtils.setField(chartService, "datasetStorageService", storage);
+        ReflectionTestUtils.setField(chartService, "visualizationAggregateService", aggregates);
+        ReflectionTestUtils.setField(chartService, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(chartService, "maxEntries", 0);
+        ReflectionTestUtils.setField(chartService, "maxCachedPoints", 10000);
+
+        boolean keyOnY = mode == AggregationMode.Y_SUM || mode == AggregationMode.Y_AVG;
+
+        visualization = new Visualization();
+        visualization.setId("benchmark");
+        visualization.setXAxis(keyOnY ? "value" : "category");
+        visualization.setYAxis(keyOnY ? "category" : "value");
+        visualization.setXAxisAggregateSum(mode == AggregationMode.X_SUM);
+        visualization.setXAxisAggregateAvg(mode == AggregationMode.X_AVG);
+        visualization.setYAxisAggregateSum(mode == AggregationMode.Y_SUM);
+        visualization.setYAxisAggregateAvg(mode == AggregationMode.Y_AVG);
+        visualization.setModifiedAt(new Date());
+        visualization.setDataset(dataset);
+
+        if (mode == AggregationMode.NONE || mode == AggregationMode.DOWNSAMPLED) {
+            visualization.setXAxis("date");
+        }
+
+        maxPoints = mode == AggregationMode.DOWNSAMPLED ? 1000 : null;
+        objectMapper = new ObjectMapper();
+    }
+
+    @Benchmark
+    public void chartDataForVisualization() throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(OutputStream.nullOutputStream())) {
+            chartService.writeChartData(visualization, maxPoints, generator);
+        }
+    }
+
+    /**
+     * The chart data computed by the loop that preceded {@link com.digidworks.demo.service.ChartAggregator}: a boxed
+     * {@link DataPoint} per group in a {@link HashMap}, collected into a {@link LinkedList}, read from the same chunks
+     * and written the same way. It does not depend on {@code materialized}.
+     */
+    @Benchmark
+    public void chartDataBoxedBaseline() throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(OutputStream.nullOutputStream())) {
+            objectMapper.writeValue(generator, boxedChartData());
+        }
+    }
+
+    private List<DataPoint> boxedChartData() {
+        Dataset data = visualization.getDataset();
+        boolean xAxisAggr = visualization.isXAxisAggregateSum() || visualization.isXAxisAggregateAvg();
+        boolean yAxisAggr = visualization.isYAxisAggregateSum() || visualization.isYAxisAggregateAvg();
+        Map<String, DataPoint> xAggregator = new HashMap<>();
+        Map<String, DataPoint> yAggregator = new HashMap<>();
+        List<DataPoint> result = new LinkedList<>();
+        int xIndex = data.getHeader().indexOf(visualization.getXAxis());
+        int yIndex = data.getHeader().indexOf(visualization.getYAxis());
+
+        try (Stream<DatasetChunk> chunks = storage.chunks(data)) {
+            Iterator<DatasetChunk> it = chunks.iterator();
+
+            while (it.hasNext()) {
+                DatasetChunk chunk = it.next();
+                ColumnChunk xColumn = chunk.getColumns().get(xIndex);
+                ColumnChunk yColumn = chunk.getColumns().get(yIndex);
+
+                for (int row = 0; row < chunk.getRowCount(); row++) {
+                    DataPoint dataPoint;
+
+                    if (xAxisAggr) {
+                        dataPoint = xAggregator.computeIfAbsent(xColumn.stringAt(row), k -> {
+                            DataPoint d = new DataPoint();
+                            d.setX(k);
+                            d.setY(0D);
+                            return d;
+                        });
+
+                        dataPoint.setY((double) dataPoint.getY() + yColumn.numberAt(row));
+                        dataPoint.setTotalRowsCount(dataPoint.getTotalRowsCount() + 1);
+                    } else if (yAxisAggr) {
+                        dataPoint = yAggregator.computeIfAbsent(yColumn.stringAt(row), k -> {
+                            DataPoint d = new DataPoint();
+                            d.setY(k);
+                            d.setX(0D);
+                            return d;
+                        });
+
+                        dataPoint.setX((double) dataPoint.getX() + xColumn.numberAt(row));
+                        dataPoint.setTotalRowsCount(dataPoint.getTotalRowsCount() + 1);
+                    } else {
+                        dataPoint = new DataPoint();
+                        dataPoint.setX(xColumn.stringAt(row));
+                        dataPoint.setY(yColumn.stringAt(row));
+                        result.add(dataPoint);
+                    }
+                }
+            }
+        }
+
+        if (xAggregator.size() > 0) {
+            result.addAll(xAggregator.values());
+
+            if (visualization.isXAxisAggregateAvg()) {
+                result.forEach(dataPoint -> dataPoint.setY((double) dataPoint.getY() / dataPoint.getTotalRowsCount()));
+            }
+        } else if (yAggregator.size() > 0) {
+            result.addAll(yAggregator.values());
+
+            if (visualization.isYAxisAggregateAvg()) {
+                result.forEach(dataPoint -> dataPoint.setX((double) dataPoint.getX() / dataPoint.getTotalRowsCount()));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Computes the aggregate on every read, as when there is no valid materialized aggregate.
+     */
+    private static class ComputedAggregates extends VisualizationAggregateService {
+        @Override
+        public VisualizationAggregate aggregate(Visualization vis, String keyColumn, String valueColumn) {
+            return compute(vis.getId(), vis.getDataset(), keyColumn, valueColumn);
+        }
+    }
+
+    /**
+     * Computes the aggregate on the first read and serves it from memory afterwards, as a stored aggregate would be.
+     */
+    private static class MaterializedAggregates extends VisualizationAggregateService {
+        private VisualizationAggregate aggregate;
+
+        @Override
+        public VisualizationAggregate aggregate(Visualization vis, String keyColumn, String valueColumn) {
+            if (aggregate == null) {
+                aggregate = compute(vis.getId(), vis.getDataset(), keyColumn, valueColumn);
+            }
+
+            return aggregate;
+        }
+    }
+
+    /**
+     * Serves fresh copies of the chunks on every read, so that every invocation pays for decoding the payloads.
+     */
+    private static class InMemoryStorage extends DatasetStorageService {
+        private final List<DatasetChunk> chunks;
+
+        InMemoryStorage(List<DatasetChunk> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public Stream<DatasetChunk> chunks(Dataset dataset) {
+            return chunks.stream().map(BenchmarkData::stored);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.digidworks.demo.benchmark;
+
+import com.digidworks.demo.service.CsvParser;
+import com.digidworks.demo.service.ParallelCsvParser;
+import com.opencsv.exceptions.CsvException;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CSV ingestion: the streaming parser on an in-memory upload and the multi-core parser on a file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CsvParserBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    private int rows;
+
+    private byte[] csv;
+    private Path file;
+    private CsvParser csvParser;
+    private ParallelCsvParser parallelCsvParser;
+
+    @Setup
+    public void setup() throws IOException {
+        csv = BenchmarkData.csv(rows);
+        file = Files.createTempFile("benchmark-", ".csv");
+        Files.write(file, csv);
+
+        csvParser = new CsvParser();
+        ReflectionTestUtils.setField(csvParser, "batchSize", BenchmarkData.CHUNK_SIZE);
+
+        parallelCsvParser = new ParallelCsvParser();
+        ReflectionTestUtils.setField(parallelCsvParser, "csvParser", csvParser);
+        ReflectionTestUtils.setField(parallelCsvParser, "parallelThreshold", DataSize.ofBytes(0));
+        ReflectionTestUtils.setField(parallelCsvParser, "splitSize", DataSize.ofMegabytes(2));
+        parallelCsvParser.init();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        parallelCsvParser.destroy();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long parseCsv(Blackhole blackhole) throws IOException, CsvException {
+        return csvParser.parse(new ByteArrayInputStream(csv), new BlackholeHandler(blackhole));
+    }
+
+    @Benchmark
+    public long parseCsvParallel(Blackhole blackhole) throws IOException, CsvException {
+        return parallelCsvParser.parse(file, new BlackholeHandler(blackhole));
+    }
+
+    private static class BlackholeHandler implements CsvParser.RowHandler {
+        private final Blackhole blackhole;
+
+        BlackholeHandler(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void header(List<String> header) {
+            blackhole.consume(header);
+        }
+
+        @Override
+        public void rows(List<List<String>> rows) {
+            blackhole.consume(rows);
+        }
+    }
+}
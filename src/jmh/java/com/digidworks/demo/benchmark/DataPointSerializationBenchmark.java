@@ -0,0 +1,49 @@
+package com.digidworks.demo.benchmark;
+
+import com.digidworks.demo.dto.DataPoint;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of chart data points.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DataPointSerializationBenchmark {
+
+    @Param({"1000", "100000"})
+    private int points;
+
+    private List<DataPoint> dataPoints;
+    private ObjectMapper objectMapper;
+
+    @Setup
+    public void setup() {
+        dataPoints = new ArrayList<>(points);
+
+        for (int i = 0; i < points; i++) {
+            List<String> row = BenchmarkData.row(i);
+            DataPoint dataPoint = new DataPoint();
+            dataPoint.setX(row.get(0));
+            dataPoint.setY(Double.parseDouble(row.get(2)));
+            dataPoints.add(dataPoint);
+        }
+
+        objectMapper = new ObjectMapper();
+    }
+
+    @Benchmark
+    public void serializeDataPoints() throws IOException {
+        objectMapper.writeValue(OutputStream.nullOutputStream(), dataPoints);
+    }
+}
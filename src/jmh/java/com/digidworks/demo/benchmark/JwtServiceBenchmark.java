@@ -0,0 +1,93 @@
+package com.digidworks.demo.benchmark;
+
+import com.digidworks.demo.filter.AuthTokenFilter;
+import com.digidworks.demo.model.User;
+import com.digidworks.demo.service.JwtService;
+import com.digidworks.demo.service.UserService;
+import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token verification, with and without the verified-token cache, and the whole token filter in front of every
+ * authenticated request. The user lookup is stubbed out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class JwtServiceBenchmark {
+
+    private JwtService cachingJwtService;
+    private JwtService jwtService;
+    private AuthTokenFilter authTokenFilter;
+    private String token;
+
+    @Setup
+    public void setup() {
+        User user = new User();
+        user.setEmail("benchmark@example.com");
+        user.setRoles(Set.of(User.Role.ROLE_USER));
+
+        cachingJwtService = jwtService(10000);
+        jwtService = jwtService(0);
+        token = cachingJwtService.generateJwtToken(new UsernamePasswordAuthenticationToken(user, null));
+
+        authTokenFilter = new AuthTokenFilter();
+        ReflectionTestUtils.setField(authTokenFilter, "jwtService", cachingJwtService);
+        ReflectionTestUtils.setField(authTokenFilter, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(authTokenFilter, "userService", new UserService() {
+            @Override
+            public User loadAuthenticatedUser(String username) {
+                return user;
+            }
+        });
+    }
+
+    @Benchmark
+    public Claims validate() {
+        return jwtService.parseValidClaims(token);
+    }
+
+    @Benchmark
+    public Claims validateCached() {
+        return cachingJwtService.parseValidClaims(token);
+    }
+
+    @Benchmark
+    public Object authFilter() throws ServletException, IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/visualizations");
+        request.addHeader("Authorization", "Bearer " + token);
+
+        authTokenFilter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+
+        Object principal = SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        SecurityContextHolder.clearContext();
+
+        return principal;
+    }
+
+    private static JwtService jwtService(int maxCachedTokens) {
+        JwtService service = new JwtService();
+        ReflectionTestUtils.setField(service, "jwtSecret", Base64.getEncoder().encodeToString(new byte[64]));
+        ReflectionTestUtils.setField(service, "jwtExpiration", 3600000);
+        ReflectionTestUtils.setField(service, "maxCachedTokens", maxCachedTokens);
+        service.init();
+
+        return service;
+    }
+}
@@ -1,5 +1,9 @@
 package com.digidworks.demo.configuration;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
@@ -10,14 +14,35 @@ import java.util.concurrent.Executor;
 @Configuration
 @EnableAsync
 public class AsyncConfiguration {
+
+    /**
+     * Bounded executor for background CSV ingestion. Once the queue is full new tasks are rejected with a
+     * {@link org.springframework.core.task.TaskRejectedException} instead of piling up. Its queue depth and active
+     * threads are published as {@code executor.*} gauges tagged {@code name=asyncExecutor}.
+     *
+     * @param meterRegistry
+     * @param corePoolSize
+     * @param maxPoolSize
+     * @param queueCapacity
+     * @return
+     */
     @Bean(name = "asyncExecutor")
-    public Executor asyncExecutor() {
+    public Executor asyncExecutor(
+            MeterRegistry meterRegistry,
+            @Value("${csvVisualizationDemoApi.app.ingestion.core-pool-size:2}") int corePoolSize,
+            @Value("${csvVisualizationDemoApi.app.ingestion.max-pool-size:4}") int maxPoolSize,
+            @Value("${csvVisualizationDemoApi.app.ingestion.queue-capacity:20}") int queueCapacity
+    ) {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(2);
-        executor.setMaxPoolSize(4);
-        executor.setQueueCapacity(100);
+        executor.setCorePoolSize(corePoolSize);
+        executor.setMaxPoolSize(maxPoolSize);
+        executor.setQueueCapacity(queueCapacity);
         executor.setThreadNamePrefix("AsyncThread-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
         executor.initialize();
+
+        new ExecutorServiceMetrics(executor.getThreadPoolExecutor(), "asyncExecutor", Tags.empty()).bindTo(meterRegistry);
+
         return executor;
     }
 }
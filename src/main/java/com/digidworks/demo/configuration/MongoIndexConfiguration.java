@@ -0,0 +1,64 @@
+package com.digidworks.demo.configuration;
+
+import com.digidworks.demo.model.Dataset;
+import com.digidworks.demo.model.DatasetChunk;
+import com.digidworks.demo.model.IngestionJob;
+import com.digidworks.demo.model.User;
+import com.digidworks.demo.model.Visualization;
+import com.digidworks.demo.model.VisualizationAggregate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.List;
+import java.util.Map;
+
+@Configuration
+public class MongoIndexConfiguration {
+
+    private static final List<Class<?>> INDEXED_TYPES =
+            List.of(User.class, Dataset.class, DatasetChunk.class, Visualization.class, VisualizationAggregate.class,
+                    IngestionJob.class);
+
+    /**
+     * Indexes that were replaced by others and would get in the way of the current ones.
+     */
+    private static final Map<Class<?>, List<String>> DROPPED_INDEXES =
+            Map.of(DatasetChunk.class, List.of("datasetId_chunkNo", "datasetId_firstRow"));
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MongoMappingContext mongoMappingContext;
+
+    /**
+     * Creates the indexes declared on the documents. Automatic index creation only runs when an entity is first
+     * touched by the mapping context, so the indexes are ensured explicitly once the application has started, before
+     * anything else runs on startup. Replaced indexes are dropped first.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(0)
+    public void ensureIndexes() {
+        IndexResolver resolver = new MongoPersistentEntityIndexResolver(mongoMappingContext);
+
+        for (Class<?> type : INDEXED_TYPES) {
+            IndexOperations indexOperations = mongoTemplate.indexOps(type);
+            List<String> dropped = DROPPED_INDEXES.getOrDefault(type, List.of());
+
+            indexOperations.getIndexInfo().stream()
+                    .map(IndexInfo::getName)
+                    .filter(dropped::contains)
+                    .forEach(indexOperations::dropIndex);
+            resolver.resolveIndexFor(type).forEach(indexOperations::ensureIndex);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.digidworks.demo.configuration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.time.Duration;
+
+@Configuration
+public class WebMvcConfiguration implements WebMvcConfigurer {
+
+    @Value("${csvVisualizationDemoApi.app.streaming.max-pool-size:16}")
+    private int streamingMaxPoolSize;
+
+    /**
+     * How long a streamed response (dataset exports, raw files and chart data) may take. Datasets grow without a
+     * limit through appends, so by default streams never time out; a stream whose client went away fails on its next
+     * write instead. Zero or less means no limit.
+     */
+    @Value("${csvVisualizationDemoApi.app.streaming.timeout:0}")
+    private Duration streamingTimeout;
+
+    /**
+     * Executor that writes streamed responses, instead of a new thread per response.
+     *
+     * @return
+     */
+    @Bean(name = "streamingExecutor")
+    public ThreadPoolTaskExecutor streamingExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(streamingMaxPoolSize);
+        executor.setMaxPoolSize(streamingMaxPoolSize);
+        executor.setQueueCapacity(100);
+        executor.setThreadNamePrefix("StreamingThread-");
+        return executor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(streamingExecutor());
+        configurer.setDefaultTimeout(streamingTimeout.toMillis());
+    }
+}
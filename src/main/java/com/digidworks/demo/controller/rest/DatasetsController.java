@@ -1,29 +1,45 @@
 package com.digidworks.demo.controller.rest;
 
 import com.digidworks.demo.dto.DatasetDto;
+import com.digidworks.demo.dto.ScrollPage;
 import com.digidworks.demo.model.Dataset;
+import com.digidworks.demo.model.IngestionJob;
 import com.digidworks.demo.model.User;
 import com.digidworks.demo.repository.DatasetRepository;
-import com.opencsv.CSVReader;
+import com.digidworks.demo.repository.IngestionJobRepository;
+import com.digidworks.demo.service.ChartService;
+import com.digidworks.demo.service.DatasetIngestionService;
+import com.digidworks.demo.service.DatasetStorageService;
+import com.digidworks.demo.service.ExportService;
+import com.digidworks.demo.service.KeysetPaginationService;
+import com.digidworks.demo.service.RawFileService;
+import com.digidworks.demo.service.VisualizationAggregateService;
 import com.opencsv.exceptions.CsvException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PageableDefault;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.annotation.Secured;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.*;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
 
 /**
  * CRUD controller for datasets.
@@ -36,6 +52,33 @@ public class DatasetsController {
     @Autowired
     private DatasetRepository datasetRepository;
 
+    @Autowired
+    private DatasetStorageService datasetStorageService;
+
+    @Autowired
+    private DatasetIngestionService datasetIngestionService;
+
+    @Autowired
+    private IngestionJobRepository ingestionJobRepository;
+
+    @Autowired
+    private ChartService chartService;
+
+    @Autowired
+    private KeysetPaginationService keysetPaginationService;
+
+    @Autowired
+    private VisualizationAggregateService visualizationAggregateService;
+
+    @Autowired
+    private RawFileService rawFileService;
+
+    @Autowired
+    private ExportService exportService;
+
+    @Value("${csvVisualizationDemoApi.app.rows.max-limit:10000}")
+    private int maxRowsLimit;
+
     /**
      * Get a page of datasets.
      *
@@ -43,10 +86,23 @@ public class DatasetsController {
      * @return
      */
     @GetMapping
-    public Page<Dataset> allDatasets(@AuthenticationPrincipal User user, @PageableDefault(size = Integer.MAX_VALUE, value = Integer.MAX_VALUE) Pageable pageable) {
+    public Page<Dataset> allDatasets(@AuthenticationPrincipal User user, @PageableDefault(size = 50) Pageable pageable) {
         return datasetRepository.findAllByUser(user, pageable);
     }
 
+    /**
+     * Get a page of datasets with keyset pagination, newest first. Unlike the numbered pages this does not count the
+     * datasets and fetching any page costs the same.
+     *
+     * @param after the cursor returned with the previous page
+     * @param size
+     * @return
+     */
+    @GetMapping("/scroll")
+    public ScrollPage<Dataset> scrollDatasets(@AuthenticationPrincipal User user, @RequestParam(required = false) String after, @RequestParam(required = false) Integer size) {
+        return keysetPaginationService.scroll(Dataset.class, user, after, size, Dataset::getCreatedAt, Dataset::getId, "header", "columnTypes");
+    }
+
     /**
      * Get a dataset by id.
      *
@@ -59,115 +115,189 @@ public class DatasetsController {
     }
 
     /**
-     * Create a dataset.
+     * Get a range of rows of a dataset, optionally restricted to some of its columns.
      *
+     * @param id
+     * @param offset  the first row
+     * @param limit   the maximum number of rows
+     * @param columns the names of the columns to return, all columns by default
      * @return
      */
-    @PostMapping(consumes = {"multipart/form-data"})
-    public Dataset createDataset(
+    @GetMapping("/{id}/rows")
+    public List<List<String>> datasetRows(
             @AuthenticationPrincipal User user,
-            @RequestPart("dataset") @Valid DatasetDto dto,
-            @RequestPart("file") @Valid @NotNull @NotBlank MultipartFile file
-    ) throws IOException, CsvException, ExecutionException, InterruptedException {
-        return saveDataset(user, dto, null, file);
+            @PathVariable String id,
+            @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(defaultValue = "100") int limit,
+            @RequestParam(required = false) List<String> columns
+    ) {
+        if (offset < 0 || limit < 1 || limit > maxRowsLimit) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Offset must not be negative and limit must be between 1 and " + maxRowsLimit + "!");
+        }
+
+        Dataset dataset = datasetRepository.findHeaderByUserAndId(user, id).orElseThrow();
+        int[] columnIndexes = null;
+
+        if (columns != null) {
+            List<String> header = dataset.getHeader();
+            columnIndexes = new int[columns.size()];
+
+            for (int i = 0; i < columnIndexes.length; i++) {
+                columnIndexes[i] = header.indexOf(columns.get(i));
+
+                if (columnIndexes[i] < 0) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown column " + columns.get(i) + "!");
+                }
+            }
+        }
+
+        return datasetStorageService.rows(dataset, offset, limit, columnIndexes);
     }
 
     /**
-     * Update a dataset by id.
+     * Download the original CSV file of a dataset. The stored bytes are copied to the response as they are read from
+     * GridFS, without parsing them. Rows appended to the dataset follow the rows of the file it was uploaded with.
      *
      * @param id
-     * @param dto
      * @return
      */
-    @PutMapping(value = "/{id}", consumes = {"multipart/form-data"})
-    public Dataset updateDataset(
-            @AuthenticationPrincipal User user,
-            @PathVariable String id,
-            @RequestPart("dataset") @Valid DatasetDto dto,
-            @RequestPart(value = "file", required = false) MultipartFile file
-    ) throws IOException, CsvException, ExecutionException, InterruptedException {
-        if (file != null) {
-            return saveDataset(user, dto, id, file);
-        }
+    @GetMapping("/{id}/file")
+    public ResponseEntity<StreamingResponseBody> datasetFile(@AuthenticationPrincipal User user, @PathVariable String id) {
+        Dataset dataset = datasetRepository.findByUserAndId(user, id).orElseThrow();
 
-        Dataset dataset = fetchAndUpdateDataset(user, dto, id);
+        if (!rawFileService.exists(dataset)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "The original file of this dataset is not available!");
+        }
 
-        datasetRepository.save(dataset);
-        return dataset;
+        return ResponseEntity.ok()
+                .contentType(new MediaType("text", "csv"))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.builder("attachment").filename(dataset.getName() + ".csv").build().toString())
+                .body(outputStream -> {
+                    try (InputStream inputStream = rawFileService.open(dataset)) {
+                        inputStream.transferTo(outputStream);
+                    }
+                });
     }
 
     /**
-     * Delete dataset by id.
+     * Export the rows of a dataset as CSV or as newline delimited JSON. The rows are streamed from storage as they are
+     * written, and compressed when the client accepts gzip.
      *
      * @param id
+     * @param format csv (default) or ndjson
+     * @return
      */
-    @DeleteMapping("/{id}")
-    public void deleteDataset(@AuthenticationPrincipal User user, @PathVariable String id) {
-        datasetRepository.deleteByUserAndId(user, id);
+    @GetMapping("/{id}/export")
+    public ResponseEntity<StreamingResponseBody> exportDataset(@AuthenticationPrincipal User user, @PathVariable String id, @RequestParam(defaultValue = "csv") String format) {
+        if (!format.equals("csv") && !format.equals("ndjson")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Format must be csv or ndjson!");
+        }
+
+        Dataset dataset = datasetRepository.findByUserAndId(user, id).orElseThrow();
+        boolean csv = format.equals("csv");
+
+        return ResponseEntity.ok()
+                .contentType(csv ? new MediaType("text", "csv", StandardCharsets.UTF_8) : new MediaType("application", "x-ndjson", StandardCharsets.UTF_8))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.builder("attachment").filename(dataset.getName() + "." + format).build().toString())
+                .body(outputStream -> {
+                    if (csv) {
+                        exportService.writeCsv(dataset, outputStream);
+                    } else {
+                        exportService.writeNdjson(dataset, outputStream);
+                    }
+                });
     }
 
     /**
-     * Fetches (or creates) a new Dataset object and makes the basic updates.
+     * Get the status of a background dataset ingestion.
      *
-     * @param user
-     * @param dto
-     * @param id
+     * @param jobId
      * @return
      */
-    @Async("asyncExecutor")
-    protected CompletableFuture<Dataset> fetchAndUpdateDatasetAsync(User user, DatasetDto dto, String id) {
-        return CompletableFuture.completedFuture(fetchAndUpdateDataset(user, dto, id));
+    @GetMapping("/jobs/{jobId}")
+    public IngestionJob ingestionJob(@AuthenticationPrincipal User user, @PathVariable String jobId) {
+        return ingestionJobRepository.findByUserAndId(user, jobId).orElseThrow();
     }
 
     /**
-     * Reads and parses a CSV uploaded as a MultipartFile.
+     * Create a dataset. Large files are ingested in the background and answered with 202 and the ingestion job.
      *
-     * @param file
      * @return
-     * @throws IOException
-     * @throws CsvException
      */
-    @Async("asyncExecutor")
-    protected CompletableFuture<List<List<String>>> parseCsv(MultipartFile file) throws IOException, CsvException {
-        List<List<String>> result = new ArrayList<>();
-        CSVReader reader = new CSVReader(new InputStreamReader(file.getInputStream()));
-        Iterator<String[]> it = reader.iterator();
-        Set<Integer> emptyColumns = new HashSet<>();
-
-        String[] firstLine = null;
+    @PostMapping(consumes = {"multipart/form-data"})
+    public ResponseEntity<?> createDataset(
+            @AuthenticationPrincipal User user,
+            @RequestPart("dataset") @Valid DatasetDto dto,
+            @RequestPart("file") @Valid @NotNull @NotBlank MultipartFile file
+    ) throws IOException, CsvException {
+        return saveDataset(user, dto, null, file);
+    }
 
-        if (it.hasNext()) {
-            firstLine = it.next();
+    /**
+     * Update a dataset by id. Large files are ingested in the background and answered with 202 and the ingestion job.
+     *
+     * @param id
+     * @param dto
+     * @return
+     */
+    @PutMapping(value = "/{id}", consumes = {"multipart/form-data"})
+    public ResponseEntity<?> updateDataset(
+            @AuthenticationPrincipal User user,
+            @PathVariable String id,
+            @RequestPart("dataset") @Valid DatasetDto dto,
+            @RequestPart(value = "file", required = false) MultipartFile file
+    ) throws IOException, CsvException {
+        if (file != null) {
+            return saveDataset(user, dto, id, file);
         }
 
-        if (firstLine != null) {
-            List<String> firstLineResult = new ArrayList<>();
-
-            for (int i = 0; i < firstLine.length; i++) {
-                if (firstLine[i].isBlank()) {
-                    emptyColumns.add(i);
-                } else {
-                    firstLineResult.add(firstLine[i]);
-                }
-            }
-
-            result.add(firstLineResult);
+        Dataset dataset = fetchAndUpdateDataset(user, dto, id);
 
-            while (it.hasNext()) {
-                String[] currLine = it.next();
-                List<String> currResult = new ArrayList<>();
+        datasetStorageService.updateMetadata(dataset);
+        chartService.evictDataset(dataset.getId());
+        return ResponseEntity.ok(dataset);
+    }
 
-                for (int i = 0; i < currLine.length; i++) {
-                    if (!emptyColumns.contains(i)) {
-                        currResult.add(currLine[i]);
-                    }
-                }
+    /**
+     * Append the rows of a CSV file to a dataset. The header of the file must match the header of the dataset. Large
+     * files are ingested in the background and answered with 202 and the ingestion job.
+     *
+     * @param id
+     * @param file
+     * @return
+     */
+    @PostMapping(value = "/{id}/rows", consumes = {"multipart/form-data"})
+    public ResponseEntity<?> appendRows(
+            @AuthenticationPrincipal User user,
+            @PathVariable String id,
+            @RequestPart("file") @Valid @NotNull @NotBlank MultipartFile file
+    ) throws IOException, CsvException {
+        Dataset dataset = datasetRepository.findByUserAndId(user, id).orElseThrow();
+        dataset.setModifiedAt(new Date());
 
-                result.add(currResult);
-            }
+        if (datasetIngestionService.isLarge(file)) {
+            return ResponseEntity.accepted().body(datasetIngestionService.submitAppend(dataset, file));
         }
 
-        return CompletableFuture.completedFuture(result);
+        return ResponseEntity.ok(datasetIngestionService.append(dataset, file));
+    }
+
+    /**
+     * Delete dataset by id.
+     *
+     * @param id
+     */
+    @DeleteMapping("/{id}")
+    public void deleteDataset(@AuthenticationPrincipal User user, @PathVariable String id) {
+        datasetRepository.findByUserAndId(user, id).ifPresent(dataset -> {
+            datasetStorageService.delete(dataset);
+            visualizationAggregateService.deleteDataset(dataset.getId());
+            rawFileService.delete(dataset.getRawFileIds());
+        });
+        chartService.evictDataset(id);
     }
 
     /**
@@ -180,23 +310,19 @@ public class DatasetsController {
      * @return
      * @throws IOException
      * @throws CsvException
-     * @throws ExecutionException
-     * @throws InterruptedException
      */
-    private Dataset saveDataset(User user, DatasetDto dto, String id, MultipartFile file) throws IOException, CsvException, ExecutionException, InterruptedException {
-        CompletableFuture<Dataset> datasetFuture = fetchAndUpdateDatasetAsync(user, dto, id);
-        CompletableFuture<List<List<String>>> csvLinesFuture = parseCsv(file);
-
-        CompletableFuture.allOf(datasetFuture, csvLinesFuture).join();
-
-        Dataset dataset = datasetFuture.get();
+    private ResponseEntity<?> saveDataset(User user, DatasetDto dto, String id, MultipartFile file) throws IOException, CsvException {
+        Dataset dataset = fetchAndUpdateDataset(user, dto, id);
 
-        dataset.setData(csvLinesFuture.get());
-        dataset.setRows(dataset.getData().size() - 1);
+        if (id != null) {
+            datasetStorageService.updateMetadata(dataset);
+        }
 
-        datasetRepository.save(dataset);
+        if (datasetIngestionService.isLarge(file)) {
+            return ResponseEntity.accepted().body(datasetIngestionService.submit(dataset, file));
+        }
 
-        return dataset;
+        return ResponseEntity.ok(datasetIngestionService.ingest(dataset, file));
     }
 
     /**
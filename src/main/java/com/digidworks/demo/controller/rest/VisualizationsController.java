@@ -1,23 +1,37 @@
 package com.digidworks.demo.controller.rest;
 
-import com.digidworks.demo.dto.DataPoint;
+import com.digidworks.demo.dto.ScrollPage;
 import com.digidworks.demo.dto.VisualizationDto;
 import com.digidworks.demo.model.Dataset;
 import com.digidworks.demo.model.User;
 import com.digidworks.demo.model.Visualization;
 import com.digidworks.demo.repository.DatasetRepository;
 import com.digidworks.demo.repository.VisualizationRepository;
-import org.apache.commons.lang3.math.NumberUtils;
+import com.digidworks.demo.service.ChartService;
+import com.digidworks.demo.service.ExportService;
+import com.digidworks.demo.service.KeysetPaginationService;
+import com.digidworks.demo.service.VisualizationAggregateService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.annotation.Secured;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
-import java.util.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
 
 /**
  * CRUD controller for visualizations.
@@ -33,6 +47,21 @@ public class VisualizationsController {
     @Autowired
     private DatasetRepository datasetRepository;
 
+    @Autowired
+    private ChartService chartService;
+
+    @Autowired
+    private KeysetPaginationService keysetPaginationService;
+
+    @Autowired
+    private VisualizationAggregateService visualizationAggregateService;
+
+    @Autowired
+    private ExportService exportService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     /**
      * Get a page of visualizations.
      *
@@ -40,10 +69,23 @@ public class VisualizationsController {
      * @return
      */
     @GetMapping
-    public Page<Visualization> allVisualizations(@AuthenticationPrincipal User user, @PageableDefault(size = Integer.MAX_VALUE, value = Integer.MAX_VALUE) Pageable pageable) {
+    public Page<Visualization> allVisualizations(@AuthenticationPrincipal User user, @PageableDefault(size = 50) Pageable pageable) {
         return visualizationRepository.findAllByUser(user, pageable);
     }
 
+    /**
+     * Get a page of visualizations with keyset pagination, newest first. Unlike the numbered pages this does not count
+     * the visualizations and fetching any page costs the same.
+     *
+     * @param after the cursor returned with the previous page
+     * @param size
+     * @return
+     */
+    @GetMapping("/scroll")
+    public ScrollPage<Visualization> scrollVisualizations(@AuthenticationPrincipal User user, @RequestParam(required = false) String after, @RequestParam(required = false) Integer size) {
+        return keysetPaginationService.scroll(Visualization.class, user, after, size, Visualization::getCreatedAt, Visualization::getId);
+    }
+
     /**
      * Get all visualizations for the dashboard.
      *
@@ -73,95 +115,44 @@ public class VisualizationsController {
      */
     @GetMapping("/dataset/{id}/header")
     public List<String> datasetHeaderForVisualization(@AuthenticationPrincipal User user, @PathVariable String id) {
-        return datasetRepository.findByUserAndId(user, id).orElseThrow().getData().get(0);
+        return datasetRepository.findHeaderByUserAndId(user, id).orElseThrow().getHeader();
     }
 
     /**
-     * Get visualization's data prepared for charting.
+     * Get visualization's data prepared for charting. The points are streamed to the client as they are produced.
      *
      * @param id
+     * @param maxPoints if set, series that are not aggregated are downsampled to at most this many points (min 3)
+     * @param format    json (default) or csv
      * @return
      */
     @GetMapping("/{id}/chart/data")
-    public List<DataPoint> chartDataForVisualization(@AuthenticationPrincipal User user, @PathVariable String id) {
-        Visualization vis = visualizationRepository.findByUserAndId(user, id).orElseThrow();
-        Dataset data = vis.getDataset();
-
-        String xAxis = vis.getXAxis();
-        String yAxis = vis.getYAxis();
-
-        boolean xAxisAggr = vis.isXAxisAggregateSum() || vis.isXAxisAggregateAvg();
-        boolean yAxisAggr = vis.isYAxisAggregateSum() || vis.isYAxisAggregateAvg();
-        Map<String, DataPoint> xAggregator = new HashMap<>();
-        Map<String, DataPoint> yAggregator = new HashMap<>();
-
-        List<DataPoint> result = new LinkedList<>();
-        int xIndex = -1;
-        int yIndex = -1;
-
-        Iterator<List<String>> it = data.getData().iterator();
-        List<String> firstLine = it.next();
-
-        for (int i = 0; i < firstLine.size(); i++) {
-            String colName = firstLine.get(i);
-            if (colName.equals(xAxis)) {
-                xIndex = i;
-            } else if (colName.equals(yAxis)) {
-                yIndex = i;
-            }
+    public ResponseEntity<StreamingResponseBody> chartDataForVisualization(@AuthenticationPrincipal User user, @PathVariable String id, @RequestParam(required = false) Integer maxPoints, @RequestParam(defaultValue = "json") String format) {
+        if (maxPoints != null && maxPoints < 3) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "maxPoints must be at least 3!");
         }
-
-        while (it.hasNext()) {
-            List<String> currLine = it.next();
-            String x = currLine.get(xIndex);
-            String y = currLine.get(yIndex);
-            DataPoint dataPoint;
-
-            if (xAxisAggr) {
-                dataPoint = xAggregator.computeIfAbsent(x, k -> {
-                    DataPoint d = new DataPoint();
-                    d.setX(k);
-                    d.setY(0D);
-                    return d;
-                });
-
-                double yParsed = NumberUtils.isParsable(y) ? NumberUtils.createDouble(y) : 0; //if data is parseable - add it, else - ignore it
-                dataPoint.setY((double) dataPoint.getY() + yParsed);
-                dataPoint.setTotalRowsCount(dataPoint.getTotalRowsCount() + 1);
-            } else if (yAxisAggr) {
-                dataPoint = yAggregator.computeIfAbsent(y, k -> {
-                    DataPoint d = new DataPoint();
-                    d.setY(k);
-                    d.setX(0D);
-                    return d;
-                });
-
-                double xParsed = NumberUtils.isParsable(x) ? NumberUtils.createDouble(x) : 0; //if data is parseable - add it, else - ignore it
-                dataPoint.setX((double) dataPoint.getX() + xParsed);
-                dataPoint.setTotalRowsCount(dataPoint.getTotalRowsCount() + 1);
-            } else {
-                dataPoint = new DataPoint();
-                dataPoint.setX(x);
-                dataPoint.setY(y);
-                result.add(dataPoint);
-            }
+        if (!format.equals("json") && !format.equals("csv")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Format must be json or csv!");
         }
 
-        if (xAggregator.size() > 0) {
-            result.addAll(xAggregator.values());
-
-            if (vis.isXAxisAggregateAvg()) {
-                result.forEach(dataPoint -> dataPoint.setY((double) dataPoint.getY() / dataPoint.getTotalRowsCount()));
-            }
-        } else if (yAggregator.size() > 0) {
-            result.addAll(yAggregator.values());
+        Visualization vis = visualizationRepository.findByUserAndId(user, id).orElseThrow();
 
-            if (vis.isYAxisAggregateAvg()) {
-                result.forEach(dataPoint -> dataPoint.setX((double) dataPoint.getX() / dataPoint.getTotalRowsCount()));
-            }
+        if (format.equals("csv")) {
+            return ResponseEntity.ok()
+                    .contentType(new MediaType("text", "csv", StandardCharsets.UTF_8))
+                    .header(HttpHeaders.CONTENT_DISPOSITION,
+                            ContentDisposition.builder("attachment").filename(vis.getName() + ".csv").build().toString())
+                    .body(outputStream -> exportService.writeChartCsv(vis, maxPoints, outputStream));
         }
 
-        return result;
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(outputStream -> {
+                    try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                        chartService.writeChartData(vis, maxPoints, generator);
+                    }
+                });
     }
 
     /**
@@ -193,7 +184,10 @@ public class VisualizationsController {
      */
     @DeleteMapping("/{id}")
     public void deleteVisualization(@AuthenticationPrincipal User user, @PathVariable String id) {
-        visualizationRepository.deleteByUserAndId(user, id);
+        if (visualizationRepository.deleteByUserAndId(user, id) > 0) {
+            visualizationAggregateService.deleteVisualization(id);
+        }
+        chartService.evictVisualization(id);
     }
 
     /**
@@ -206,7 +200,20 @@ public class VisualizationsController {
      */
     private Visualization saveVisualization(User user, VisualizationDto dto, String id) {
         Visualization visualization = id != null ? visualizationRepository.findByUserAndId(user, id).orElseThrow() : new Visualization();
-        Dataset dataset = datasetRepository.findByUserAndId(user, dto.getDataset()).orElseThrow();
+
+        boolean aggregated = dto.isXAxisAggregateSum() || dto.isXAxisAggregateAvg()
+                || dto.isYAxisAggregateSum() || dto.isYAxisAggregateAvg();
+        Dataset dataset;
+
+        if (aggregated) {
+            dataset = datasetRepository.findByUserAndId(user, dto.getDataset())
+                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Dataset not found!"));
+        } else if (datasetRepository.existsByUserAndId(user, dto.getDataset())) {
+            dataset = new Dataset();
+            dataset.setId(dto.getDataset());
+        } else {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Dataset not found!");
+        }
 
         visualization.setName(dto.getName());
         visualization.setShowOnDashboard(dto.isShowOnDashboard());
@@ -225,6 +232,8 @@ public class VisualizationsController {
         visualization.setDataset(dataset);
 
         visualizationRepository.save(visualization);
+        visualizationAggregateService.materialize(visualization);
+        chartService.evictVisualization(visualization.getId());
 
         return visualization;
     }
@@ -0,0 +1,23 @@
+package com.digidworks.demo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * A page of a keyset-paginated listing.
+ *
+ * @param <T>
+ */
+@Data
+@AllArgsConstructor
+public class ScrollPage<T> {
+
+    private List<T> content;
+
+    /**
+     * The cursor of the next page, null on the last page.
+     */
+    private String next;
+}
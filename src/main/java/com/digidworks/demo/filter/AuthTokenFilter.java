@@ -1,12 +1,14 @@
 package com.digidworks.demo.filter;
 
 import com.digidworks.demo.service.JwtService;
+import com.digidworks.demo.service.UserService;
+import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.util.StringUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
@@ -22,18 +24,23 @@ public class AuthTokenFilter extends OncePerRequestFilter {
     private JwtService jwtService;
 
     @Autowired
-    @Qualifier("userService")
-    private UserDetailsService userDetailsService;
+    private UserService userService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
             throws ServletException, IOException {
 
+        Timer.Sample sample = Timer.start(meterRegistry);
         String jwt = parseJwt(request);
-        if (jwt != null && jwtService.validateJwtToken(jwt)) {
-            String username = jwtService.getUserNameFromJwtToken(jwt);
+        Claims claims = jwt != null ? jwtService.parseValidClaims(jwt) : null;
 
-            UserDetails userDetails = userDetailsService.loadUserByUsername(username);
+        if (claims != null) {
+            String username = claims.getSubject();
+
+            UserDetails userDetails = userService.loadAuthenticatedUser(username);
             UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(userDetails, null,
                     userDetails.getAuthorities());
             authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
@@ -41,6 +48,8 @@ public class AuthTokenFilter extends OncePerRequestFilter {
             SecurityContextHolder.getContext().setAuthentication(authentication);
         }
 
+        sample.stop(meterRegistry.timer("auth.filter", "authenticated", String.valueOf(claims != null)));
+
         filterChain.doFilter(request, response);
     }
 
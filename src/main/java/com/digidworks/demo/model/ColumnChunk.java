@@ -0,0 +1,279 @@
+package com.digidworks.demo.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The values of one column within a {@link DatasetChunk}, stored in a typed columnar form.
+ * <p>
+ * Typed columns are only used when every value round-trips to exactly the same text, so {@link #stringAt(int)}
+ * always returns the original cell and {@link #numberAt(int)} always matches parsing that cell. Repetitive string
+ * columns are dictionary-encoded: every distinct cell is kept once and the rows refer to it by its index.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ColumnChunk {
+
+    private static final long NOT_A_DECIMAL = Long.MIN_VALUE;
+
+    private static final long MAX_EXACT = 1L << 53;
+
+    static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+            1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+
+    private ColumnType type;
+
+    /**
+     * NUMBER: the unscaled values, DATE: the epoch days.
+     */
+    private long[] values;
+
+    /**
+     * NUMBER: the scale of every value, or null when all values are integers.
+     */
+    private byte[] scales;
+
+    /**
+     * STRING: the cells, with null for cells missing from short rows. Null when the column is dictionary-encoded.
+     */
+    private List<String> strings;
+
+    /**
+     * Dictionary-encoded STRING: the index of every cell in the dictionary.
+     */
+    private int[] codes;
+
+    /**
+     * Dictionary-encoded STRING: the distinct cells, in the order they were first seen.
+     */
+    private List<String> dictionary;
+
+    /**
+     * Encodes one column of a batch of rows, choosing the narrowest type that holds every value losslessly.
+     *
+     * @param rows
+     * @param column
+     * @return
+     */
+    public static ColumnChunk encode(List<List<String>> rows, int column) {
+        int size = rows.size();
+        List<String> cells = new ArrayList<>(size);
+
+        for (List<String> row : rows) {
+            cells.add(column < row.size() ? row.get(column) : null);
+        }
+
+        long[] values = new long[size];
+        byte[] scales = new byte[size];
+        boolean scaled = false;
+        int i = 0;
+
+        for (; i < size; i++) {
+            long unscaled = parseDecimal(cells.get(i));
+
+            if (unscaled == NOT_A_DECIMAL) {
+                break;
+            }
+
+            values[i] = unscaled;
+            scales[i] = (byte) decimalScale(cells.get(i));
+            scaled |= scales[i] != 0;
+        }
+
+        if (i == size) {
+            return new ColumnChunk(ColumnType.NUMBER, values, scaled ? scales : null, null, null, null);
+        }
+
+        for (i = 0; i < size; i++) {
+            LocalDate date = parseDate(cells.get(i));
+
+            if (date == null) {
+                return encodeStrings(cells);
+            }
+
+            values[i] = date.toEpochDay();
+        }
+
+        return new ColumnChunk(ColumnType.DATE, values, null, null, null, null);
+    }
+
+    /**
+     * Encodes a string column, with a dictionary if at most half of the cells are distinct.
+     *
+     * @param cells
+     * @return
+     */
+    private static ColumnChunk encodeStrings(List<String> cells) {
+        int size = cells.size();
+        Map<String, Integer> index = new HashMap<>();
+        List<String> dictionary = new ArrayList<>();
+        int[] codes = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            String cell = cells.get(i);
+            Integer code = index.get(cell);
+
+            if (code == null) {
+                if (dictionary.size() * 2 >= size) {
+                    return new ColumnChunk(ColumnType.STRING, null, null, cells, null, null);
+                }
+
+                code = dictionary.size();
+                index.put(cell, code);
+                dictionary.add(cell);
+            }
+
+            codes[i] = code;
+        }
+
+        return new ColumnChunk(ColumnType.STRING, null, null, null, codes, dictionary);
+    }
+
+    public int size() {
+        if (type != ColumnType.STRING) {
+            return values.length;
+        }
+
+        return strings != null ? strings.size() : codes.length;
+    }
+
+    public boolean isDictionaryEncoded() {
+        return codes != null;
+    }
+
+    /**
+     * The numeric value of a cell, or 0 if the cell is not a number.
+     *
+     * @param row
+     * @return
+     */
+    public double numberAt(int row) {
+        switch (type) {
+            case NUMBER:
+                return scales == null ? values[row] : values[row] / POW10[scales[row]];
+            case DATE:
+                return 0;
+            default:
+                String value = stringAt(row);
+                return NumberUtils.isParsable(value) ? Double.parseDouble(value) : 0;
+        }
+    }
+
+    /**
+     * The original text of a cell.
+     *
+     * @param row
+     * @return
+     */
+    public String stringAt(int row) {
+        switch (type) {
+            case NUMBER:
+                return formatDecimal(values[row], scales == null ? 0 : scales[row]);
+            case DATE:
+                return LocalDate.ofEpochDay(values[row]).toString();
+            default:
+                return strings != null ? strings.get(row) : dictionary.get(codes[row]);
+        }
+    }
+
+    /**
+     * Parses a plain decimal (-?(0|[1-9][0-9]*)(.[0-9]+)?) into its unscaled value. Values that would not format back
+     * to the same text or can not be converted to a double exactly are rejected.
+     *
+     * @param value
+     * @return the unscaled value or {@link #NOT_A_DECIMAL}
+     */
+    private static long parseDecimal(String value) {
+        if (value == null || value.isEmpty()) {
+            return NOT_A_DECIMAL;
+        }
+
+        int length = value.length();
+        boolean negative = value.charAt(0) == '-';
+        int start = negative ? 1 : 0;
+        int point = -1;
+        long unscaled = 0;
+
+        for (int i = start; i < length; i++) {
+            char c = value.charAt(i);
+
+            if (c == '.' && point < 0) {
+                point = i;
+            } else if (c >= '0' && c <= '9') {
+                unscaled = unscaled * 10 + (c - '0');
+
+                if (unscaled > MAX_EXACT) {
+                    return NOT_A_DECIMAL;
+                }
+            } else {
+                return NOT_A_DECIMAL;
+            }
+        }
+
+        int integerDigits = (point < 0 ? length : point) - start;
+        int scale = point < 0 ? 0 : length - point - 1;
+
+        if (integerDigits == 0 || (integerDigits > 1 && value.charAt(start) == '0')
+                || (point >= 0 && scale == 0) || scale >= POW10.length || (negative && unscaled == 0)) {
+            return NOT_A_DECIMAL;
+        }
+
+        return negative ? -unscaled : unscaled;
+    }
+
+    private static int decimalScale(String value) {
+        int point = value.indexOf('.');
+        return point < 0 ? 0 : value.length() - point - 1;
+    }
+
+    /**
+     * Parses an ISO-8601 date that formats back to the same text.
+     *
+     * @param value
+     * @return the date or null
+     */
+    private static LocalDate parseDate(String value) {
+        if (value == null || value.length() != 10 || value.charAt(4) != '-' || value.charAt(7) != '-') {
+            return null;
+        }
+
+        try {
+            LocalDate date = LocalDate.parse(value);
+            return date.toString().equals(value) ? date : null;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    static String formatDecimal(long unscaled, int scale) {
+        if (scale == 0) {
+            return Long.toString(unscaled);
+        }
+
+        StringBuilder digits = new StringBuilder(Long.toString(Math.abs(unscaled)));
+
+        while (digits.length() <= scale) {
+            digits.insert(0, '0');
+        }
+
+        digits.insert(digits.length() - scale, '.');
+
+        if (unscaled < 0) {
+            digits.insert(0, '-');
+        }
+
+        return digits.toString();
+    }
+}
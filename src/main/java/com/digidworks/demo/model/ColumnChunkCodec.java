@@ -0,0 +1,305 @@
+package com.digidworks.demo.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary format of the columns of a {@link DatasetChunk}.
+ * <p>
+ * Numbers and dates are written as zigzag varints of the difference to the previous value, scales as single bytes,
+ * strings as a varint length followed by UTF-8 and dictionary codes as varints. The result is Deflate-compressed and
+ * prefixed with its uncompressed length.
+ */
+final class ColumnChunkCodec {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte NUMBER = 0;
+    private static final byte SCALED_NUMBER = 1;
+    private static final byte DATE = 2;
+    private static final byte STRING = 3;
+    private static final byte DICTIONARY = 4;
+
+    private ColumnChunkCodec() {
+    }
+
+    static byte[] encode(List<ColumnChunk> columns, int rows) {
+        Output output = new Output(rows * columns.size() * 4 + 16);
+        output.writeVarLong(FORMAT_VERSION);
+        output.writeVarLong(columns.size());
+        output.writeVarLong(rows);
+
+        for (ColumnChunk column : columns) {
+            if (column.getType() == ColumnType.NUMBER) {
+                output.writeByte(column.getScales() == null ? NUMBER : SCALED_NUMBER);
+                output.writeDeltas(column.getValues());
+
+                if (column.getScales() != null) {
+                    output.writeBytes(column.getScales());
+                }
+            } else if (column.getType() == ColumnType.DATE) {
+                output.writeByte(DATE);
+                output.writeDeltas(column.getValues());
+            } else if (column.isDictionaryEncoded()) {
+                output.writeByte(DICTIONARY);
+                output.writeVarLong(column.getDictionary().size());
+
+                for (String value : column.getDictionary()) {
+                    output.writeString(value);
+                }
+
+                for (int code : column.getCodes()) {
+                    output.writeVarLong(code);
+                }
+            } else {
+                output.writeByte(STRING);
+
+                for (String value : column.getStrings()) {
+                    output.writeString(value);
+                }
+            }
+        }
+
+        return output.compress();
+    }
+
+    static List<ColumnChunk> decode(byte[] payload) {
+        Input input = Input.decompress(payload);
+        int version = (int) input.readVarLong();
+
+        if (version != FORMAT_VERSION) {
+            throw new IllegalStateException("Unsupported chunk format version " + version);
+        }
+
+        int width = (int) input.readVarLong();
+        int rows = (int) input.readVarLong();
+        List<ColumnChunk> columns = new ArrayList<>(width);
+
+        for (int i = 0; i < width; i++) {
+            byte kind = input.readByte();
+
+            switch (kind) {
+                case NUMBER:
+                    columns.add(new ColumnChunk(ColumnType.NUMBER, input.readDeltas(rows), null, null, null, null));
+                    break;
+                case SCALED_NUMBER:
+                    long[] values = input.readDeltas(rows);
+                    columns.add(new ColumnChunk(ColumnType.NUMBER, values, input.readBytes(rows), null, null, null));
+                    break;
+                case DATE:
+                    columns.add(new ColumnChunk(ColumnType.DATE, input.readDeltas(rows), null, null, null, null));
+                    break;
+                case DICTIONARY:
+                    int size = (int) input.readVarLong();
+                    List<String> dictionary = new ArrayList<>(size);
+
+                    for (int d = 0; d < size; d++) {
+                        dictionary.add(input.readString());
+                    }
+
+                    int[] codes = new int[rows];
+
+                    for (int row = 0; row < rows; row++) {
+                        codes[row] = (int) input.readVarLong();
+                    }
+
+                    columns.add(new ColumnChunk(ColumnType.STRING, null, null, null, codes, dictionary));
+                    break;
+                case STRING:
+                    List<String> strings = new ArrayList<>(rows);
+
+                    for (int row = 0; row < rows; row++) {
+                        strings.add(input.readString());
+                    }
+
+                    columns.add(new ColumnChunk(ColumnType.STRING, null, null, strings, null, null));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown column kind " + kind);
+            }
+        }
+
+        return columns;
+    }
+
+    private static class Output {
+        private byte[] buffer;
+        private int length;
+
+        Output(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void writeByte(int b) {
+            ensureCapacity(1);
+            buffer[length++] = (byte) b;
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+
+            while ((value & ~0x7FL) != 0) {
+                buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+
+            buffer[length++] = (byte) value;
+        }
+
+        void writeDeltas(long[] values) {
+            long previous = 0;
+
+            for (long value : values) {
+                long delta = value - previous;
+                writeVarLong((delta << 1) ^ (delta >> 63));
+                previous = value;
+            }
+        }
+
+        /**
+         * Writes the length plus one, or 0 for null, followed by the UTF-8 bytes.
+         *
+         * @param value
+         */
+        void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1L);
+            writeBytes(bytes);
+        }
+
+        byte[] compress() {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+            try {
+                deflater.setInput(buffer, 0, length);
+                deflater.finish();
+
+                byte[] compressed = new byte[4 + length / 2 + 64];
+                compressed[0] = (byte) (length >>> 24);
+                compressed[1] = (byte) (length >>> 16);
+                compressed[2] = (byte) (length >>> 8);
+                compressed[3] = (byte) length;
+                int size = 4;
+
+                while (!deflater.finished()) {
+                    if (size == compressed.length) {
+                        compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                    }
+
+                    size += deflater.deflate(compressed, size, compressed.length - size);
+                }
+
+                return Arrays.copyOf(compressed, size);
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private void ensureCapacity(int bytes) {
+            if (length + bytes > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + bytes));
+            }
+        }
+    }
+
+    private static class Input {
+        private final byte[] buffer;
+        private int position;
+
+        private Input(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        static Input decompress(byte[] payload) {
+            int length = (payload[0] & 0xFF) << 24 | (payload[1] & 0xFF) << 16 | (payload[2] & 0xFF) << 8 | (payload[3] & 0xFF);
+            byte[] buffer = new byte[length];
+            Inflater inflater = new Inflater();
+
+            try {
+                inflater.setInput(payload, 4, payload.length - 4);
+                int size = 0;
+
+                while (size < length) {
+                    int read = inflater.inflate(buffer, size, length - size);
+
+                    if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new IllegalStateException("Truncated chunk payload");
+                    }
+
+                    size += read;
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Corrupt chunk payload", e);
+            } finally {
+                inflater.end();
+            }
+
+            return new Input(buffer);
+        }
+
+        byte readByte() {
+            return buffer[position++];
+        }
+
+        byte[] readBytes(int count) {
+            byte[] bytes = Arrays.copyOfRange(buffer, position, position + count);
+            position += count;
+            return bytes;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+
+            do {
+                b = buffer[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            return value;
+        }
+
+        long[] readDeltas(int count) {
+            long[] values = new long[count];
+            long previous = 0;
+
+            for (int i = 0; i < count; i++) {
+                long zigzag = readVarLong();
+                previous += (zigzag >>> 1) ^ -(zigzag & 1);
+                values[i] = previous;
+            }
+
+            return values;
+        }
+
+        String readString() {
+            int length = (int) readVarLong();
+
+            if (length == 0) {
+                return null;
+            }
+
+            String value = new String(buffer, position, length - 1, StandardCharsets.UTF_8);
+            position += length - 1;
+            return value;
+        }
+    }
+}
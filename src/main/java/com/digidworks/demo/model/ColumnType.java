@@ -0,0 +1,29 @@
+package com.digidworks.demo.model;
+
+/**
+ * Storage type of a dataset column.
+ */
+public enum ColumnType {
+    /**
+     * Decimal numbers, stored as unscaled longs and a scale.
+     */
+    NUMBER,
+    /**
+     * ISO-8601 dates (yyyy-MM-dd), stored as epoch days.
+     */
+    DATE,
+    /**
+     * Anything else, stored as the original text, or as dictionary codes when the text repeats.
+     */
+    STRING;
+
+    /**
+     * The type that can hold values of both types.
+     *
+     * @param other
+     * @return
+     */
+    public ColumnType merge(ColumnType other) {
+        return other == null || other == this ? this : STRING;
+    }
+}
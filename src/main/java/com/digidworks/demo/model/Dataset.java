@@ -5,7 +5,10 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.DBRef;
+import org.springframework.data.mongodb.core.mapping.Document;
 
 import javax.validation.constraints.NotEmpty;
 import java.util.Date;
@@ -14,6 +17,11 @@ import java.util.List;
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
+@Document
+@CompoundIndexes({
+        @CompoundIndex(name = "user_id", def = "{'user': 1, '_id': 1}"),
+        @CompoundIndex(name = "user_createdAt_id", def = "{'user': 1, 'createdAt': -1, '_id': -1}")
+})
 public class Dataset {
 
     @Id
@@ -35,6 +43,37 @@ public class Dataset {
     private User user;
 
     @JsonIgnore
-    private List<List<String>> data;
+    private List<String> header;
+
+    /**
+     * The type of every header column over all chunks.
+     */
+    @JsonIgnore
+    private List<ColumnType> columnTypes;
+
+    /**
+     * The chunks holding the rows. Every upload writes its chunks under a new generation and the dataset only
+     * switches to it once all of them are written, so readers never see a partial upload.
+     */
+    @JsonIgnore
+    private String generation;
+
+    /**
+     * Incremented whenever rows are stored or appended.
+     */
+    @JsonIgnore
+    private long contentVersion;
+
+    /**
+     * The chunk format the rows were stored with, see {@link com.digidworks.demo.service.DatasetStorageService#STORAGE_VERSION}.
+     */
+    @JsonIgnore
+    private int storageVersion;
+
+    /**
+     * The GridFS files of the uploads the rows were parsed from, in upload order.
+     */
+    @JsonIgnore
+    private List<String> rawFileIds;
 
 }
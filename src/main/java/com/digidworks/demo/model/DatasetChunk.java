@@ -0,0 +1,129 @@
+package com.digidworks.demo.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fixed range of rows of a {@link Dataset}. Rows are split over many small documents so that a dataset is not
+ * bound by the maximum document size and can be read lazily, one chunk at a time. Within a chunk the rows are stored
+ * column by column, each column with its own inferred type, and persisted as a single compressed binary payload
+ * that is decoded the first time the columns are read.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Document
+@CompoundIndexes({
+        @CompoundIndex(name = "datasetId_generation_chunkNo", def = "{'datasetId': 1, 'generation': 1, 'chunkNo': 1}", unique = true),
+        @CompoundIndex(name = "datasetId_generation_firstRow", def = "{'datasetId': 1, 'generation': 1, 'firstRow': 1}")
+})
+public class DatasetChunk {
+
+    @Id
+    private String id;
+
+    private String datasetId;
+
+    /**
+     * The upload the chunk belongs to, see {@link Dataset#getGeneration()}.
+     */
+    private String generation;
+
+    private int chunkNo;
+
+    private int firstRow;
+
+    private int rowCount;
+
+    /**
+     * The columns in the binary format of {@link ColumnChunkCodec}.
+     */
+    private byte[] payload;
+
+    @Transient
+    private List<ColumnChunk> columns;
+
+    /**
+     * Encodes a batch of rows into a columnar chunk.
+     *
+     * @param datasetId
+     * @param generation
+     * @param chunkNo
+     * @param firstRow
+     * @param rows
+     * @param width the minimum number of columns, usually the header size
+     * @return
+     */
+    public static DatasetChunk encode(String datasetId, String generation, int chunkNo, int firstRow, List<List<String>> rows, int width) {
+        for (List<String> row : rows) {
+            width = Math.max(width, row.size());
+        }
+
+        List<ColumnChunk> columns = new ArrayList<>(width);
+
+        for (int i = 0; i < width; i++) {
+            columns.add(ColumnChunk.encode(rows, i));
+        }
+
+        return new DatasetChunk(null, datasetId, generation, chunkNo, firstRow, rows.size(),
+                ColumnChunkCodec.encode(columns, rows.size()), columns);
+    }
+
+    public List<ColumnChunk> getColumns() {
+        if (columns == null && payload != null) {
+            columns = ColumnChunkCodec.decode(payload);
+        }
+
+        return columns;
+    }
+
+    /**
+     * Rebuilds a row as it was parsed. Cells missing from short rows are left out.
+     *
+     * @param index
+     * @return
+     */
+    public List<String> row(int index) {
+        List<ColumnChunk> columns = getColumns();
+        int length = columns.size();
+
+        while (length > 0 && columns.get(length - 1).stringAt(index) == null) {
+            length--;
+        }
+
+        List<String> row = new ArrayList<>(length);
+
+        for (int i = 0; i < length; i++) {
+            row.add(columns.get(i).stringAt(index));
+        }
+
+        return row;
+    }
+
+    /**
+     * Picks the given columns of a row. Cells missing from short rows are null.
+     *
+     * @param index
+     * @param columnIndexes
+     * @return
+     */
+    public List<String> row(int index, int[] columnIndexes) {
+        List<ColumnChunk> columns = getColumns();
+        List<String> row = new ArrayList<>(columnIndexes.length);
+
+        for (int column : columnIndexes) {
+            row.add(column < columns.size() ? columns.get(column).stringAt(index) : null);
+        }
+
+        return row;
+    }
+}
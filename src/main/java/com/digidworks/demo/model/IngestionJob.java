@@ -0,0 +1,46 @@
+package com.digidworks.demo.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.DBRef;
+
+import java.util.Date;
+
+/**
+ * Tracks a CSV upload that is ingested in the background.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class IngestionJob {
+
+    public enum Status {QUEUED, RUNNING, COMPLETED, FAILED}
+
+    @Id
+    private String id;
+
+    private String datasetId;
+
+    private Status status;
+
+    private Integer rows;
+
+    private String error;
+
+    private Date createdAt;
+
+    private Date modifiedAt;
+
+    /**
+     * Whether the dataset was created for this upload, and has to be removed again if it never completes.
+     */
+    @JsonIgnore
+    private boolean createdDataset;
+
+    @DBRef
+    @JsonIgnore
+    private User user;
+}
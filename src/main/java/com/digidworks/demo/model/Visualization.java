@@ -1,11 +1,17 @@
 package com.digidworks.demo.model;
 
-import com.fasterxml.jackson.annotation.*;
+import com.digidworks.demo.serializer.DatasetIdSerializer;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.DBRef;
+import org.springframework.data.mongodb.core.mapping.Document;
 
 import javax.validation.constraints.NotEmpty;
 import java.util.Date;
@@ -13,6 +19,12 @@ import java.util.Date;
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
+@Document
+@CompoundIndexes({
+        @CompoundIndex(name = "user_id", def = "{'user': 1, '_id': 1}"),
+        @CompoundIndex(name = "user_showOnDashboard_createdAt", def = "{'user': 1, 'showOnDashboard': 1, 'createdAt': -1}"),
+        @CompoundIndex(name = "user_createdAt_id", def = "{'user': 1, 'createdAt': -1, '_id': -1}")
+})
 public class Visualization {
 
     @Id
@@ -48,9 +60,8 @@ public class Visualization {
 
     private Date modifiedAt;
 
-    @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "id")
-    @JsonIdentityReference(alwaysAsId = true)
-    @DBRef
+    @JsonSerialize(using = DatasetIdSerializer.class)
+    @DBRef(lazy = true)
     private Dataset dataset;
 
     @DBRef
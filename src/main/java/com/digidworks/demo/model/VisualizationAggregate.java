@@ -0,0 +1,66 @@
+package com.digidworks.demo.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.List;
+
+/**
+ * The materialized group-by of an aggregated visualization: the sum and the count of the value column for every
+ * group of the key column, in the order the groups were first seen.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Document
+public class VisualizationAggregate {
+
+    /**
+     * The id of the visualization.
+     */
+    @Id
+    private String id;
+
+    @Indexed
+    private String datasetId;
+
+    private String keyColumn;
+
+    private String valueColumn;
+
+    /**
+     * The number of dataset rows that are aggregated.
+     */
+    private int rows;
+
+    /**
+     * The content version of the dataset that is aggregated.
+     */
+    private long datasetVersion;
+
+    private List<String> keys;
+
+    private double[] sums;
+
+    private long[] counts;
+
+    /**
+     * Whether this is the aggregate of the given columns of the current content of the dataset.
+     *
+     * @param dataset
+     * @param keyColumn
+     * @param valueColumn
+     * @return
+     */
+    public boolean isFor(Dataset dataset, String keyColumn, String valueColumn) {
+        return datasetId.equals(dataset.getId())
+                && datasetVersion == dataset.getContentVersion()
+                && rows == dataset.getRows()
+                && this.keyColumn.equals(keyColumn)
+                && this.valueColumn.equals(valueColumn);
+    }
+}
@@ -0,0 +1,33 @@
+package com.digidworks.demo.repository;
+
+import com.digidworks.demo.model.DatasetChunk;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+
+import java.util.Optional;
+import java.util.stream.Stream;
+
+public interface DatasetChunkRepository extends MongoRepository<DatasetChunk, String> {
+    @Query(value = "{ 'datasetId' : ?0, 'generation' : ?1, 'firstRow' : { $gte : ?2, $lt : ?3 } }", sort = "{ 'chunkNo' : 1 }")
+    Stream<DatasetChunk> findChunkRange(String datasetId, String generation, int fromRow, int toRow);
+
+    @Query(fields = "{ 'chunkNo' : 1 }")
+    Optional<DatasetChunk> findFirstByDatasetIdAndGenerationAndFirstRowLessThanEqualOrderByFirstRowDesc(String datasetId, String generation, int row);
+
+    Stream<DatasetChunk> findAllByDatasetIdAndGenerationAndChunkNoGreaterThanEqualAndFirstRowLessThanOrderByChunkNo(String datasetId, String generation, int chunkNo, int row);
+
+    @Query(fields = "{ 'chunkNo' : 1 }")
+    Optional<DatasetChunk> findFirstByDatasetIdAndGenerationOrderByChunkNoDesc(String datasetId, String generation);
+
+    void deleteAllByDatasetId(String datasetId);
+
+    void deleteAllByDatasetIdAndGeneration(String datasetId, String generation);
+
+    void deleteAllByDatasetIdAndGenerationNot(String datasetId, String generation);
+
+    @Query(value = "{ 'datasetId' : ?0, 'generation' : ?1, 'firstRow' : { $gte : ?2 } }", delete = true)
+    void deleteChunksFrom(String datasetId, String generation, int firstRow);
+
+    @Query(value = "{ 'datasetId' : ?0, 'generation' : ?1, 'chunkNo' : { $gte : ?2, $lt : ?3 } }", delete = true)
+    void deleteChunkRange(String datasetId, String generation, int fromChunkNo, int toChunkNo);
+}
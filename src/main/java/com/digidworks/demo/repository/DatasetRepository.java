@@ -5,13 +5,24 @@ import com.digidworks.demo.model.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 
+import java.util.List;
 import java.util.Optional;
 
 public interface DatasetRepository extends MongoRepository<Dataset, String> {
+    @Query(fields = "{ 'header' : 0, 'columnTypes' : 0 }")
     Page<Dataset> findAllByUser(User user, Pageable pageable);
 
     Optional<Dataset> findByUserAndId(User user, String id);
 
+    @Query(fields = "{ 'header' : 1, 'rows' : 1, 'generation' : 1 }")
+    Optional<Dataset> findHeaderByUserAndId(User user, String id);
+
+    boolean existsByUserAndId(User user, String id);
+
     void deleteByUserAndId(User user, String id);
+
+    @Query(value = "{ 'storageVersion' : { $not : { $gte : ?0 } } }", fields = "{ 'header' : 0, 'columnTypes' : 0 }")
+    List<Dataset> findAllStoredBefore(int storageVersion);
 }
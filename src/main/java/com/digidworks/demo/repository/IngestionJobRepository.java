@@ -0,0 +1,15 @@
+package com.digidworks.demo.repository;
+
+import com.digidworks.demo.model.IngestionJob;
+import com.digidworks.demo.model.User;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface IngestionJobRepository extends MongoRepository<IngestionJob, String> {
+    Optional<IngestionJob> findByUserAndId(User user, String id);
+
+    List<IngestionJob> findAllByStatusIn(Collection<IngestionJob.Status> statuses);
+}
@@ -0,0 +1,12 @@
+package com.digidworks.demo.repository;
+
+import com.digidworks.demo.model.VisualizationAggregate;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+
+public interface VisualizationAggregateRepository extends MongoRepository<VisualizationAggregate, String> {
+    List<VisualizationAggregate> findAllByDatasetId(String datasetId);
+
+    void deleteAllByDatasetId(String datasetId);
+}
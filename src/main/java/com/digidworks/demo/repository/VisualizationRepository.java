@@ -14,7 +14,7 @@ public interface VisualizationRepository extends MongoRepository<Visualization,
 
     Optional<Visualization> findByUserAndId(User user, String id);
 
-    void deleteByUserAndId(User user, String id);
+    long deleteByUserAndId(User user, String id);
 
     List<Visualization> findAllByUserAndShowOnDashboard(User user, boolean showOnDashboard);
 }
@@ -0,0 +1,31 @@
+package com.digidworks.demo.serializer;
+
+import com.digidworks.demo.model.Dataset;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.mongodb.DBRef;
+import org.springframework.data.mongodb.core.convert.LazyLoadingProxy;
+
+import java.io.IOException;
+
+/**
+ * Serializes a dataset reference as its id. Lazy references are written straight from the underlying DBRef, so the
+ * referenced dataset is never loaded just to be serialized.
+ */
+public class DatasetIdSerializer extends JsonSerializer<Dataset> {
+
+    @Override
+    public void serialize(Dataset value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+        if (value instanceof LazyLoadingProxy) {
+            DBRef dbRef = ((LazyLoadingProxy) value).toDBRef();
+
+            if (dbRef != null) {
+                gen.writeString(dbRef.getId().toString());
+                return;
+            }
+        }
+
+        gen.writeString(value.getId());
+    }
+}
@@ -0,0 +1,320 @@
+package com.digidworks.demo.service;
+
+import com.digidworks.demo.model.ColumnChunk;
+import com.digidworks.demo.model.ColumnType;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Group-by kernel for chart data: sums and counts the values of one column grouped by the text of another.
+ * <p>
+ * Groups live in an open-addressing table with the sums and counts in parallel primitive arrays, so the hot loop
+ * does not allocate. Typed key columns are first resolved through a small per-chunk table keyed by the primitive
+ * value, so a group key string is only built the first time a value is seen in a chunk, and dictionary-encoded
+ * columns resolve every dictionary entry once per chunk. Groups keep the order in which they were first seen.
+ */
+public class ChartAggregator {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] slots = new int[INITIAL_CAPACITY];
+    private String[] keys = new String[INITIAL_CAPACITY / 2];
+    private int[] hashes = new int[INITIAL_CAPACITY / 2];
+    private double[] sums = new double[INITIAL_CAPACITY / 2];
+    private long[] counts = new long[INITIAL_CAPACITY / 2];
+    private int size;
+
+    private final LongGroupTable chunkGroups = new LongGroupTable();
+
+    private int[] rowGroups = new int[0];
+
+    /**
+     * Adds all rows of a chunk.
+     *
+     * @param keyColumn
+     * @param valueColumn
+     */
+    public void add(ColumnChunk keyColumn, ColumnChunk valueColumn) {
+        int rows = keyColumn.size();
+
+        if (rowGroups.length < rows) {
+            rowGroups = new int[rows];
+        }
+
+        resolveGroups(keyColumn, rowGroups);
+
+        for (int row = 0; row < rows; row++) {
+            add(rowGroups[row], valueColumn.numberAt(row));
+        }
+    }
+
+    /**
+     * Does the per-row work of {@link #add(ColumnChunk, ColumnChunk)} for one chunk without touching any shared
+     * state, so chunks can be prepared in parallel and then {@link #merge(Partial) merged} in order.
+     *
+     * @param keyColumn
+     * @param valueColumn
+     * @return
+     */
+    public static Partial partial(ColumnChunk keyColumn, ColumnChunk valueColumn) {
+        int rows = keyColumn.size();
+        ChartAggregator groups = new ChartAggregator();
+        int[] rowGroups = new int[rows];
+        double[] values = new double[rows];
+
+        groups.resolveGroups(keyColumn, rowGroups);
+
+        for (int row = 0; row < rows; row++) {
+            values[row] = valueColumn.numberAt(row);
+        }
+
+        return new Partial(groups, rowGroups, values);
+    }
+
+    /**
+     * Adds the rows of a prepared chunk. Values are added in row order, so merging the partials of all chunks in
+     * chunk order gives exactly the same groups, order and sums as adding the chunks one by one.
+     *
+     * @param partial
+     */
+    public void merge(Partial partial) {
+        int[] mapping = new int[partial.groups.size];
+
+        for (int local = 0; local < mapping.length; local++) {
+            mapping[local] = group(partial.groups.keys[local]);
+        }
+
+        for (int row = 0; row < partial.rowGroups.length; row++) {
+            add(mapping[partial.rowGroups[row]], partial.values[row]);
+        }
+    }
+
+    /**
+     * Rebuilds an aggregator from its groups, so that more rows can be added to it.
+     *
+     * @param keys
+     * @param sums
+     * @param counts
+     * @return
+     */
+    public static ChartAggregator restore(List<String> keys, double[] sums, long[] counts) {
+        ChartAggregator aggregator = new ChartAggregator();
+
+        for (int i = 0; i < keys.size(); i++) {
+            int group = aggregator.group(keys.get(i));
+            aggregator.sums[group] = sums[i];
+            aggregator.counts[group] = counts[i];
+        }
+
+        return aggregator;
+    }
+
+    /**
+     * Resolves the group of every row of a key column.
+     *
+     * @param keyColumn
+     * @param rowGroups
+     */
+    private void resolveGroups(ColumnChunk keyColumn, int[] rowGroups) {
+        int rows = keyColumn.size();
+
+        if (keyColumn.isDictionaryEncoded()) {
+            List<String> dictionary = keyColumn.getDictionary();
+            int[] codes = keyColumn.getCodes();
+            int[] codeGroups = new int[dictionary.size()];
+            Arrays.fill(codeGroups, -1);
+
+            for (int row = 0; row < rows; row++) {
+                int code = codes[row];
+
+                if (codeGroups[code] < 0) {
+                    codeGroups[code] = group(dictionary.get(code));
+                }
+
+                rowGroups[row] = codeGroups[code];
+            }
+            return;
+        }
+
+        if (keyColumn.getType() == ColumnType.STRING) {
+            for (int row = 0; row < rows; row++) {
+                rowGroups[row] = group(keyColumn.getStrings().get(row));
+            }
+            return;
+        }
+
+        long[] values = keyColumn.getValues();
+        byte[] scales = keyColumn.getScales();
+        chunkGroups.clear();
+
+        for (int row = 0; row < rows; row++) {
+            long key = scales == null ? values[row] : values[row] << 5 | scales[row];
+            int group = chunkGroups.get(key);
+
+            if (group < 0) {
+                group = group(keyColumn.stringAt(row));
+                chunkGroups.put(key, group);
+            }
+
+            rowGroups[row] = group;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String key(int group) {
+        return keys[group];
+    }
+
+    public double sum(int group) {
+        return sums[group];
+    }
+
+    public long count(int group) {
+        return counts[group];
+    }
+
+    private void add(int group, double value) {
+        sums[group] += value;
+        counts[group]++;
+    }
+
+    private int group(String key) {
+        int hash = key == null ? 0 : mix(key.hashCode());
+        int mask = slots.length - 1;
+
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int group = slots[slot] - 1;
+
+            if (group < 0) {
+                return insert(slot, key, hash);
+            }
+
+            if (hashes[group] == hash && Objects.equals(keys[group], key)) {
+                return group;
+            }
+        }
+    }
+
+    private int insert(int slot, String key, int hash) {
+        int group = size++;
+
+        if (group == keys.length) {
+            keys = Arrays.copyOf(keys, group * 2);
+            hashes = Arrays.copyOf(hashes, group * 2);
+            sums = Arrays.copyOf(sums, group * 2);
+            counts = Arrays.copyOf(counts, group * 2);
+        }
+
+        keys[group] = key;
+        hashes[group] = hash;
+        slots[slot] = group + 1;
+
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+
+        return group;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        int mask = capacity - 1;
+
+        for (int group = 0; group < size; group++) {
+            int slot = hashes[group] & mask;
+
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+
+            slots[slot] = group + 1;
+        }
+    }
+
+    static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * The groups, row groups and values of a single chunk.
+     */
+    public static class Partial {
+        private final ChartAggregator groups;
+        private final int[] rowGroups;
+        private final double[] values;
+
+        private Partial(ChartAggregator groups, int[] rowGroups, double[] values) {
+            this.groups = groups;
+            this.rowGroups = rowGroups;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Open-addressing table from a primitive key to a group, reused chunk after chunk.
+     */
+    private static class LongGroupTable {
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private int[] groups = new int[INITIAL_CAPACITY];
+        private int size;
+
+        int get(long key) {
+            int mask = keys.length - 1;
+
+            for (int slot = mix(Long.hashCode(key)) & mask; ; slot = (slot + 1) & mask) {
+                int group = groups[slot] - 1;
+
+                if (group < 0 || keys[slot] == key) {
+                    return group;
+                }
+            }
+        }
+
+        void put(long key, int group) {
+            if ((size + 1) * 2 > keys.length) {
+                resize(keys.length * 2);
+            }
+
+            insert(key, group);
+            size++;
+        }
+
+        void clear() {
+            if (size > 0) {
+                Arrays.fill(groups, 0);
+                size = 0;
+            }
+        }
+
+        private void insert(long key, int group) {
+            int mask = keys.length - 1;
+            int slot = mix(Long.hashCode(key)) & mask;
+
+            while (groups[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+
+            keys[slot] = key;
+            groups[slot] = group + 1;
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldGroups = groups;
+            keys = new long[capacity];
+            groups = new int[capacity];
+
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldGroups[slot] != 0) {
+                    insert(oldKeys[slot], oldGroups[slot] - 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package com.digidworks.demo.service;
+
+import com.digidworks.demo.dto.DataPoint;
+import com.digidworks.demo.model.ColumnChunk;
+import com.digidworks.demo.model.ColumnType;
+import com.digidworks.demo.model.Dataset;
+import com.digidworks.demo.model.DatasetChunk;
+import com.digidworks.demo.model.Visualization;
+import com.digidworks.demo.model.VisualizationAggregate;
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Computes the chart data of visualizations and keeps the recent results in a bounded LRU cache.
+ * <p>
+ * A cached result is only served while the modification date of the visualization and the content version and row
+ * count of its dataset match the ones it was computed for. On top of that the controllers evict entries explicitly
+ * whenever they write.
+ */
+@Service
+public class ChartService {
+
+    @Autowired
+    private DatasetStorageService datasetStorageService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private VisualizationAggregateService visualizationAggregateService;
+
+    @Value("${csvVisualizationDemoApi.app.chart-cache.max-entries:1000}")
+    private int maxEntries;
+
+    @Value("${csvVisualizationDemoApi.app.chart-cache.max-points:10000}")
+    private int maxCachedPoints;
+
+    private final Map<String, CachedChart> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedChart> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    /**
+     * Get visualization's data prepared for charting, from the cache when it is still valid.
+     *
+     * @param vis
+     * @param maxPoints if not null, series that are not aggregated are downsampled to at most this many points
+     * @return
+     */
+    public List<DataPoint> chartData(Visualization vis, Integer maxPoints) {
+        Dataset dataset = vis.getDataset();
+        Date visualizationVersion = vis.getModifiedAt();
+        long datasetVersion = dataset.getContentVersion();
+        int datasetRows = dataset.getRows();
+        String key = maxPoints == null ? vis.getId() : vis.getId() + ":" + maxPoints;
+
+        synchronized (cache) {
+            CachedChart cached = cache.get(key);
+
+            if (cached != null && cached.isVersion(visualizationVersion, datasetVersion, datasetRows)) {
+                return cached.points;
+            }
+        }
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+        List<DataPoint> result = Collections.unmodifiableList(computeChartData(vis, maxPoints));
+        recordComputation(sample, aggregationMode(vis, maxPoints), result.size());
+
+        if (result.size() <= maxCachedPoints) {
+            synchronized (cache) {
+                cache.put(key, new CachedChart(vis.getId(), dataset.getId(), visualizationVersion, datasetVersion,
+                        datasetRows, result));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Drops the cached charts of a visualization.
+     *
+     * @param visualizationId
+     */
+    public void evictVisualization(String visualizationId) {
+        synchronized (cache) {
+            cache.values().removeIf(cached -> cached.visualizationId.equals(visualizationId));
+        }
+    }
+
+    /**
+     * Drops the cached charts of all visualizations of a dataset.
+     *
+     * @param datasetId
+     */
+    public void evictDataset(String datasetId) {
+        synchronized (cache) {
+            cache.values().removeIf(cached -> cached.datasetId.equals(datasetId));
+        }
+    }
+
+    /**
+     * Writes visualization's data prepared for charting as a JSON array. Long series that are neither aggregated nor
+     * downsampled are written point by point straight from storage, without ever holding the whole series in memory.
+     *
+     * @param vis
+     * @param maxPoints
+     * @param generator
+     * @throws IOException
+     */
+    public void writeChartData(Visualization vis, Integer maxPoints, JsonGenerator generator) throws IOException {
+        generator.writeStartArray();
+        writePoints(vis, maxPoints, (x, y) -> writePoint(generator, x, y));
+        generator.writeEndArray();
+    }
+
+    /**
+     * Passes visualization's data prepared for charting to the writer point by point, with the same streaming
+     * behaviour as {@link #writeChartData(Visualization, Integer, JsonGenerator)}.
+     *
+     * @param vis
+     * @param maxPoints
+     * @param writer
+     * @throws IOException
+     */
+    public void writePoints(Visualization vis, Integer maxPoints, PointWriter writer) throws IOException {
+        Dataset data = vis.getDataset();
+        boolean downsampled = maxPoints != null && maxPoints < data.getRows();
+
+        if (!isAggregated(vis) && !downsampled && data.getRows() > maxCachedPoints) {
+            int[] axes = axisIndexes(vis, data);
+            Timer.Sample sample = Timer.start(meterRegistry);
+            rawPoints(data, axes[0], axes[1], writer::write);
+            recordComputation(sample, aggregationMode(vis, maxPoints), data.getRows());
+        } else {
+            for (DataPoint dataPoint : chartData(vis, maxPoints)) {
+                writer.write(dataPoint.getX(), dataPoint.getY());
+            }
+        }
+    }
+
+    /**
+     * Aggregates the dataset rows into chart data points. Axes that are not in the header, e.g. while the first
+     * upload of the dataset is still being ingested, give no points.
+     *
+     * @param vis
+     * @param maxPoints
+     * @return
+     */
+    private List<DataPoint> computeChartData(Visualization vis, Integer maxPoints) {
+        Dataset data = vis.getDataset();
+        int[] axes = axisIndexes(vis, data);
+        int xIndex = axes[0];
+        int yIndex = axes[1];
+
+        if (xIndex < 0 || yIndex < 0) {
+            return new ArrayList<>();
+        }
+
+        if (vis.isXAxisAggregateSum() || vis.isXAxisAggregateAvg()) {
+            return aggregate(vis, xIndex, yIndex, vis.isXAxisAggregateAvg(), true);
+        } else if (vis.isYAxisAggregateSum() || vis.isYAxisAggregateAvg()) {
+            return aggregate(vis, yIndex, xIndex, vis.isYAxisAggregateAvg(), false);
+        }
+
+        if (maxPoints != null && maxPoints < data.getRows()) {
+            return downsample(data, xIndex, yIndex, maxPoints);
+        }
+
+        List<DataPoint> result = new ArrayList<>();
+
+        rawPoints(data, xIndex, yIndex, (x, y) -> {
+            DataPoint dataPoint = new DataPoint();
+            dataPoint.setX(x);
+            dataPoint.setY(y);
+            result.add(dataPoint);
+        });
+
+        return result;
+    }
+
+    private boolean isAggregated(Visualization vis) {
+        return vis.isXAxisAggregateSum() || vis.isXAxisAggregateAvg()
+                || vis.isYAxisAggregateSum() || vis.isYAxisAggregateAvg();
+    }
+
+    /**
+     * The metrics tag of the way the chart data of a visualization is computed, mirroring
+     * {@link #computeChartData(Visualization, Integer)}.
+     *
+     * @param vis
+     * @param maxPoints
+     * @return
+     */
+    private String aggregationMode(Visualization vis, Integer maxPoints) {
+        if (vis.isXAxisAggregateSum() || vis.isXAxisAggregateAvg()) {
+            return vis.isXAxisAggregateAvg() ? "x_avg" : "x_sum";
+        } else if (vis.isYAxisAggregateSum() || vis.isYAxisAggregateAvg()) {
+            return vis.isYAxisAggregateAvg() ? "y_avg" : "y_sum";
+        }
+
+        return maxPoints != null && maxPoints < vis.getDataset().getRows() ? "downsampled" : "none";
+    }
+
+    private void recordComputation(Timer.Sample sample, String mode, long points) {
+        sample.stop(meterRegistry.timer("chart.compute", "mode", mode));
+        meterRegistry.summary("chart.points", "mode", mode).record(points);
+    }
+
+    /**
+     * Finds the columns of the X and the Y axis in the header.
+     *
+     * @param vis
+     * @param data
+     * @return
+     */
+    private int[] axisIndexes(Visualization vis, Dataset data) {
+        String xAxis = vis.getXAxis();
+        String yAxis = vis.getYAxis();
+
+        int xIndex = -1;
+        int yIndex = -1;
+
+        List<String> firstLine = data.getHeader();
+
+        for (int i = 0; i < firstLine.size(); i++) {
+            String colName = firstLine.get(i);
+            if (colName.equals(xAxis)) {
+                xIndex = i;
+            } else if (colName.equals(yAxis)) {
+                yIndex = i;
+            }
+        }
+
+        return new int[]{xIndex, yIndex};
+    }
+
+    /**
+     * Passes every row of the dataset as a point to the consumer, in order.
+     *
+     * @param data
+     * @param xIndex
+     * @param yIndex
+     * @param consumer
+     * @param <E>
+     * @throws E
+     */
+    private <E extends Exception> void rawPoints(Dataset data, int xIndex, int yIndex, PointConsumer<E> consumer) throws E {
+        try (Stream<DatasetChunk> chunks = datasetStorageService.chunks(data)) {
+            Iterator<DatasetChunk> it = chunks.iterator();
+
+            while (it.hasNext()) {
+                DatasetChunk chunk = it.next();
+                ColumnChunk xColumn = chunk.getColumns().get(xIndex);
+                ColumnChunk yColumn = chunk.getColumns().get(yIndex);
+
+                for (int row = 0; row < chunk.getRowCount(); row++) {
+                    consumer.accept(xColumn.stringAt(row), yColumn.stringAt(row));
+                }
+            }
+        }
+    }
+
+    private void writePoint(JsonGenerator generator, Object x, Object y) throws IOException {
+        generator.writeStartObject();
+        generator.writeObjectField("x", x);
+        generator.writeObjectField("y", y);
+        generator.writeEndObject();
+    }
+
+    /**
+     * Groups the rows by the key column and sums (or averages) the value column. Non-numeric values count as 0. The
+     * groups come from the materialized aggregate of the visualization.
+     *
+     * @param vis
+     * @param keyIndex
+     * @param valueIndex
+     * @param average
+     * @param keyOnX whether the key goes on the X axis and the value on the Y axis, or vice versa
+     * @return
+     */
+    private List<DataPoint> aggregate(Visualization vis, int keyIndex, int valueIndex, boolean average, boolean keyOnX) {
+        List<String> header = vis.getDataset().getHeader();
+        VisualizationAggregate aggregate = visualizationAggregateService.aggregate(vis, header.get(keyIndex), header.get(valueIndex));
+        List<String> keys = aggregate.getKeys();
+        List<DataPoint> result = new ArrayList<>(keys.size());
+
+        for (int group = 0; group < keys.size(); group++) {
+            long count = aggregate.getCounts()[group];
+            double sum = aggregate.getSums()[group];
+            double value = average ? sum / count : sum;
+            DataPoint dataPoint = new DataPoint();
+
+            if (keyOnX) {
+                dataPoint.setX(keys.get(group));
+                dataPoint.setY(value);
+            } else {
+                dataPoint.setX(value);
+                dataPoint.setY(keys.get(group));
+            }
+            dataPoint.setTotalRowsCount((int) count);
+            result.add(dataPoint);
+        }
+
+        return result;
+    }
+
+    /**
+     * Reduces a series that is not aggregated to at most maxPoints points with LTTB. Numeric X columns are placed
+     * by their value, any other X column by the row number. Non-numeric Y values count as 0.
+     * <p>
+     * The series is read twice: once for the numeric positions the points are selected by, and once more for the
+     * values of the selected rows, skipping the chunks none of them is in without decoding them.
+     *
+     * @param data
+     * @param xIndex
+     * @param yIndex
+     * @param maxPoints
+     * @return
+     */
+    private List<DataPoint> downsample(Dataset data, int xIndex, int yIndex, int maxPoints) {
+        LttbDownsampler downsampler = new LttbDownsampler(data.getRows(), maxPoints);
+        boolean numericX = data.getColumnTypes().get(xIndex) == ColumnType.NUMBER;
+
+        try (Stream<DatasetChunk> chunks = datasetStorageService.chunks(data)) {
+            Iterator<DatasetChunk> it = chunks.iterator();
+
+            while (it.hasNext()) {
+                DatasetChunk chunk = it.next();
+                ColumnChunk xColumn = chunk.getColumns().get(xIndex);
+                ColumnChunk yColumn = chunk.getColumns().get(yIndex);
+
+                for (int row = 0; row < chunk.getRowCount(); row++) {
+                    downsampler.add(numericX ? xColumn.numberAt(row) : chunk.getFirstRow() + row,
+                            yColumn.numberAt(row));
+                }
+            }
+        }
+
+        long[] selected = downsampler.finish();
+        List<DataPoint> result = new ArrayList<>(selected.length);
+        int next = 0;
+
+        try (Stream<DatasetChunk> chunks = datasetStorageService.chunks(data)) {
+            Iterator<DatasetChunk> it = chunks.iterator();
+
+            while (it.hasNext() && next < selected.length) {
+                DatasetChunk chunk = it.next();
+                long end = chunk.getFirstRow() + chunk.getRowCount();
+
+                if (selected[next] >= end) {
+                    continue;
+                }
+
+                ColumnChunk xColumn = chunk.getColumns().get(xIndex);
+                ColumnChunk yColumn = chunk.getColumns().get(yIndex);
+
+                while (next < selected.length && selected[next] < end) {
+                    int row = (int) (selected[next++] - chunk.getFirstRow());
+                    DataPoint dataPoint = new DataPoint();
+                    dataPoint.setX(xColumn.stringAt(row));
+                    dataPoint.setY(yColumn.stringAt(row));
+                    result.add(dataPoint);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Receives the points of a chart in order.
+     */
+    public interface PointWriter {
+        void write(Object x, Object y) throws IOException;
+    }
+
+    private interface PointConsumer<E extends Exception> {
+        void accept(String x, String y) throws E;
+    }
+
+    private static class CachedChart {
+        private final String visualizationId;
+        private final String datasetId;
+        private final Date visualizationVersion;
+        private final long datasetVersion;
+        private final int datasetRows;
+        private final List<DataPoint> points;
+
+        CachedChart(String visualizationId, String datasetId, Date visualizationVersion, long datasetVersion,
+                    int datasetRows, List<DataPoint> points) {
+            this.visualizationId = visualizationId;
+            this.datasetId = datasetId;
+            this.visualizationVersion = visualizationVersion;
+            this.datasetVersion = datasetVersion;
+            this.datasetRows = datasetRows;
+            this.points = points;
+        }
+
+        /**
+         * The content version and the row count of the dataset are published together once its content is fully
+         * stored, unlike its modification date, which is saved before an upload is parsed.
+         */
+        boolean isVersion(Date visualizationVersion, long datasetVersion, int datasetRows) {
+            return Objects.equals(this.visualizationVersion, visualizationVersion)
+                    && this.datasetVersion == datasetVersion
+                    && this.datasetRows == datasetRows;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.digidworks.demo.service;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming CSV parser. The input is read once, columns with a blank header are dropped on the fly and the rows are
+ * handed over in batches of bounded size, so at most one batch is held in memory at any time.
+ */
+@Component
+public class CsvParser {
+
+    @Value("${csvVisualizationDemoApi.app.ingestion.batch-size:1000}")
+    private int batchSize;
+
+    /**
+     * Parses a CSV stream and pushes its header and rows to the handler.
+     *
+     * @param inputStream
+     * @param handler
+     * @return the number of data rows (header excluded)
+     * @throws IOException
+     * @throws CsvException
+     */
+    public long parse(InputStream inputStream, RowHandler handler) throws IOException, CsvException {
+        try (CSVReader reader = new CSVReader(new InputStreamReader(inputStream))) {
+            String[] firstLine = reader.readNext();
+
+            if (firstLine == null) {
+                return 0;
+            }
+
+            boolean[] emptyColumns = emptyColumns(firstLine);
+            List<String> header = filterColumns(firstLine, emptyColumns);
+
+            handler.header(header);
+
+            long rows = 0;
+            List<List<String>> batch = new ArrayList<>(batchSize);
+            String[] currLine;
+
+            while ((currLine = reader.readNext()) != null) {
+                batch.add(filterColumns(currLine, emptyColumns));
+                rows++;
+
+                if (batch.size() >= batchSize) {
+                    handler.rows(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                handler.rows(batch);
+            }
+
+            return rows;
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Marks the columns that have a blank header.
+     *
+     * @param header
+     * @return
+     */
+    static boolean[] emptyColumns(String[] header) {
+        boolean[] emptyColumns = new boolean[header.length];
+
+        for (int i = 0; i < header.length; i++) {
+            emptyColumns[i] = header[i].isBlank();
+        }
+
+        return emptyColumns;
+    }
+
+    /**
+     * Drops the cells that fall under a blank header. Cells past the end of the header are kept.
+     *
+     * @param line
+     * @param emptyColumns
+     * @return
+     */
+    static List<String> filterColumns(String[] line, boolean[] emptyColumns) {
+        List<String> result = new ArrayList<>(line.length);
+
+        for (int i = 0; i < line.length; i++) {
+            if (i >= emptyColumns.length || !emptyColumns[i]) {
+                result.add(line[i]);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Receives the parsed header and the following rows in batches, in file order.
+     */
+    public interface RowHandler {
+        void header(List<String> header);
+
+        void rows(List<List<String>> rows);
+    }
+}
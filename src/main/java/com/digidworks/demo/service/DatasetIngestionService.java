@@ -0,0 +1,375 @@
+package com.digidworks.demo.service;
+
+import com.digidworks.demo.model.Dataset;
+import com.digidworks.demo.model.IngestionJob;
+import com.digidworks.demo.repository.DatasetRepository;
+import com.digidworks.demo.repository.IngestionJobRepository;
+import com.opencsv.exceptions.CsvException;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Ingests CSV uploads into datasets. Small uploads are ingested on the calling thread, large ones are handed to the
+ * bounded ingestion executor and tracked with an {@link IngestionJob}. Every upload is also kept as a raw file, see
+ * {@link RawFileService}.
+ */
+@Service
+public class DatasetIngestionService {
+    private static final Logger logger = LoggerFactory.getLogger(DatasetIngestionService.class);
+
+    private static final String TEMP_FILE_PREFIX = "dataset-";
+
+    @Autowired
+    private DatasetRepository datasetRepository;
+
+    @Autowired
+    private IngestionJobRepository ingestionJobRepository;
+
+    @Autowired
+    private DatasetStorageService datasetStorageService;
+
+    @Autowired
+    private ChartService chartService;
+
+    @Autowired
+    private VisualizationAggregateService visualizationAggregateService;
+
+    @Autowired
+    private RawFileService rawFileService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    @Qualifier("asyncExecutor")
+    private Executor asyncExecutor;
+
+    @Value("${csvVisualizationDemoApi.app.ingestion.async-threshold:1MB}")
+    private DataSize asyncThreshold;
+
+    @Value("${csvVisualizationDemoApi.app.ingestion.temp-dir:${java.io.tmpdir}/csv-visualization-ingestion}")
+    private Path tempDir;
+
+    /**
+     * Whether the upload is large enough to be ingested in the background.
+     *
+     * @param file
+     * @return
+     */
+    public boolean isLarge(MultipartFile file) {
+        return file.getSize() > asyncThreshold.toBytes();
+    }
+
+    /**
+     * Ingests a CSV upload into the dataset on the calling thread.
+     *
+     * @param dataset
+     * @param file
+     * @return
+     * @throws IOException
+     * @throws CsvException
+     */
+    public Dataset ingest(Dataset dataset, MultipartFile file) throws IOException, CsvException {
+        retain(dataset, file, false, () -> {
+            try (InputStream inputStream = file.getInputStream()) {
+                datasetStorageService.store(dataset, inputStream);
+            }
+        });
+        visualizationAggregateService.refresh(dataset);
+        chartService.evictDataset(dataset.getId());
+        meterRegistry.counter("dataset.ingested.bytes").increment(file.getSize());
+
+        return dataset;
+    }
+
+    /**
+     * Appends the rows of a CSV upload to the dataset on the calling thread.
+     *
+     * @param dataset
+     * @param file
+     * @return
+     * @throws IOException
+     * @throws CsvException
+     */
+    public Dataset append(Dataset dataset, MultipartFile file) throws IOException, CsvException {
+        long previousVersion = dataset.getContentVersion();
+
+        retain(dataset, file, true, () -> {
+            try (InputStream inputStream = file.getInputStream()) {
+                datasetStorageService.append(dataset, inputStream);
+            }
+        });
+        visualizationAggregateService.extend(dataset, previousVersion);
+        chartService.evictDataset(dataset.getId());
+        meterRegistry.counter("dataset.ingested.bytes").increment(file.getSize());
+
+        return dataset;
+    }
+
+    /**
+     * Queues the ingestion of an upload. The upload is moved to a temporary file first, because the multipart
+     * request is cleaned up as soon as the request completes.
+     *
+     * @param dataset
+     * @param file
+     * @return the job tracking the ingestion
+     * @throws IOException
+     */
+    public IngestionJob submit(Dataset dataset, MultipartFile file) throws IOException {
+        return submit(dataset, file, this::storeFile);
+    }
+
+    /**
+     * Queues appending the rows of an upload to the dataset.
+     *
+     * @param dataset
+     * @param file
+     * @return the job tracking the ingestion
+     * @throws IOException
+     */
+    public IngestionJob submitAppend(Dataset dataset, MultipartFile file) throws IOException {
+        return submit(dataset, file, this::appendFile);
+    }
+
+    private IngestionJob submit(Dataset dataset, MultipartFile file, FileIngestion ingestion) throws IOException {
+        boolean created = dataset.getId() == null;
+        Files.createDirectories(tempDir);
+        Path path = Files.createTempFile(tempDir, TEMP_FILE_PREFIX, ".csv");
+        file.transferTo(path);
+
+        if (created) {
+            dataset.setRows(0);
+            dataset.setHeader(List.of());
+            dataset.setColumnTypes(List.of());
+            datasetRepository.save(dataset);
+        }
+
+        IngestionJob job = new IngestionJob();
+        job.setDatasetId(dataset.getId());
+        job.setStatus(IngestionJob.Status.QUEUED);
+        job.setCreatedAt(new Date());
+        job.setModifiedAt(job.getCreatedAt());
+        job.setUser(dataset.getUser());
+        job.setCreatedDataset(created);
+        ingestionJobRepository.save(job);
+
+        try {
+            asyncExecutor.execute(() -> run(job, dataset, created, path, ingestion));
+        } catch (TaskRejectedException e) {
+            ingestionJobRepository.delete(job);
+            if (created) {
+                datasetRepository.delete(dataset);
+            }
+            Files.deleteIfExists(path);
+
+            throw new ResponseStatusException(
+                    HttpStatus.SERVICE_UNAVAILABLE, "Too many uploads are being processed, try again later!");
+        }
+
+        return job;
+    }
+
+    private void run(IngestionJob job, Dataset dataset, boolean created, Path path, FileIngestion ingestion) {
+        updateStatus(job, IngestionJob.Status.RUNNING);
+
+        try {
+            long bytes = Files.size(path);
+            ingestion.ingest(dataset, path);
+            chartService.evictDataset(dataset.getId());
+            meterRegistry.counter("dataset.ingested.bytes").increment(bytes);
+
+            job.setRows(dataset.getRows());
+            updateStatus(job, IngestionJob.Status.COMPLETED);
+        } catch (Exception e) {
+            logger.error("Ingestion of dataset {} failed", dataset.getId(), e);
+
+            if (created) {
+                datasetStorageService.delete(dataset);
+            }
+
+            job.setError(e.getMessage());
+            updateStatus(job, IngestionJob.Status.FAILED);
+        } finally {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                logger.warn("Could not delete temporary upload {}", path, e);
+            }
+        }
+    }
+
+    private Dataset storeFile(Dataset dataset, Path path) throws IOException, CsvException {
+        retain(dataset, () -> Files.newInputStream(path), false, () -> datasetStorageService.store(dataset, path));
+        visualizationAggregateService.refresh(dataset);
+
+        return dataset;
+    }
+
+    private Dataset appendFile(Dataset dataset, Path path) throws IOException, CsvException {
+        long previousVersion = dataset.getContentVersion();
+
+        retain(dataset, () -> Files.newInputStream(path), true, () -> datasetStorageService.append(dataset, path));
+        visualizationAggregateService.extend(dataset, previousVersion);
+
+        return dataset;
+    }
+
+    /**
+     * Keeps the raw upload in GridFS and then stores its rows. The raw file only replaces (or, when appending,
+     * follows) the raw files of the dataset once its rows are stored; if storing fails it is removed again. Rows
+     * appended to a dataset that has no raw file are not retained either, as they would not make a complete file.
+     *
+     * @param dataset
+     * @param source
+     * @param append
+     * @param ingestion
+     * @throws IOException
+     * @throws CsvException
+     */
+    private void retain(Dataset dataset, InputStreamSource source, boolean append, Ingestion ingestion) throws IOException, CsvException {
+        List<String> previousRawFileIds = dataset.getRawFileIds() != null ? dataset.getRawFileIds() : List.of();
+
+        if (append && previousRawFileIds.isEmpty()) {
+            ingestion.run();
+            return;
+        }
+
+        if (dataset.getId() == null) {
+            dataset.setId(new ObjectId().toHexString());
+        }
+
+        String rawFileId;
+        try (InputStream inputStream = source.getInputStream()) {
+            rawFileId = rawFileService.store(dataset, inputStream, append);
+        }
+
+        try {
+            ingestion.run();
+        } catch (IOException | CsvException | RuntimeException e) {
+            rawFileService.delete(List.of(rawFileId));
+            throw e;
+        }
+
+        List<String> rawFileIds = new ArrayList<>(append ? previousRawFileIds : List.of());
+        rawFileIds.add(rawFileId);
+        dataset.setRawFileIds(rawFileIds);
+        datasetStorageService.updateRawFileIds(dataset);
+
+        if (!append) {
+            rawFileService.delete(previousRawFileIds);
+        }
+    }
+
+    /**
+     * Fails the jobs that were queued or running when the application stopped, as the executor does not survive a
+     * restart. The chunks and raw files they wrote are discarded, together with the datasets they created, and the
+     * temporary uploads they left behind are deleted.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(2)
+    public void recoverInterruptedJobs() {
+        List<IngestionJob> jobs = ingestionJobRepository.findAllByStatusIn(
+                List.of(IngestionJob.Status.QUEUED, IngestionJob.Status.RUNNING));
+
+        for (IngestionJob job : jobs) {
+            datasetRepository.findById(job.getDatasetId()).ifPresent(dataset -> {
+                if (job.isCreatedDataset()) {
+                    datasetStorageService.delete(dataset);
+                    dataset.setRawFileIds(List.of());
+                } else {
+                    datasetStorageService.discardPartialWrites(dataset);
+                }
+                rawFileService.deleteUnreferenced(dataset);
+            });
+
+            job.setError("The ingestion was interrupted by a restart, upload the file again!");
+            updateStatus(job, IngestionJob.Status.FAILED);
+            logger.warn("Ingestion job {} of dataset {} was interrupted", job.getId(), job.getDatasetId());
+        }
+
+        if (Files.isDirectory(tempDir)) {
+            try (DirectoryStream<Path> uploads = Files.newDirectoryStream(tempDir, TEMP_FILE_PREFIX + "*")) {
+                for (Path upload : uploads) {
+                    Files.deleteIfExists(upload);
+                }
+            } catch (IOException e) {
+                logger.warn("Could not clean up the temporary uploads in {}", tempDir, e);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the chunks and aggregates of every dataset stored with an older chunk format from its raw files. Runs
+     * in the background once the application has started; datasets without a raw file are left as they are.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(3)
+    public void reparseOutdatedDatasets() {
+        List<Dataset> datasets = datasetRepository.findAllStoredBefore(DatasetStorageService.STORAGE_VERSION);
+
+        if (datasets.isEmpty()) {
+            return;
+        }
+
+        try {
+            asyncExecutor.execute(() -> datasets.forEach(this::reparse));
+        } catch (TaskRejectedException e) {
+            logger.warn("Could not queue the re-parse of {} outdated datasets", datasets.size(), e);
+        }
+    }
+
+    private void reparse(Dataset dataset) {
+        if (!rawFileService.exists(dataset)) {
+            logger.warn("Dataset {} is stored with an outdated format but has no raw file to re-parse", dataset.getId());
+            return;
+        }
+
+        try (InputStream inputStream = rawFileService.open(dataset)) {
+            datasetStorageService.store(dataset, inputStream);
+            visualizationAggregateService.refresh(dataset);
+            chartService.evictDataset(dataset.getId());
+            logger.info("Re-parsed dataset {} from its raw file", dataset.getId());
+        } catch (Exception e) {
+            logger.error("Re-parse of dataset {} failed", dataset.getId(), e);
+        }
+    }
+
+    private void updateStatus(IngestionJob job, IngestionJob.Status status) {
+        job.setStatus(status);
+        job.setModifiedAt(new Date());
+        ingestionJobRepository.save(job);
+    }
+
+    private interface Ingestion {
+        void run() throws IOException, CsvException;
+    }
+
+    private interface FileIngestion {
+        Dataset ingest(Dataset dataset, Path path) throws IOException, CsvException;
+    }
+}
@@ -0,0 +1,87 @@
+package com.digidworks.demo.service;
+
+import com.digidworks.demo.model.Dataset;
+import com.digidworks.demo.repository.DatasetRepository;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Moves the rows of datasets that were saved before chunked storage out of the {@code data} array embedded in the
+ * dataset document, whose first line is the header.
+ */
+@Service
+public class DatasetMigrationService {
+    private static final Logger logger = LoggerFactory.getLogger(DatasetMigrationService.class);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private DatasetRepository datasetRepository;
+
+    @Autowired
+    private DatasetStorageService datasetStorageService;
+
+    /**
+     * Writes the embedded rows of every legacy dataset as chunks and then removes the {@code data} field. Runs once
+     * the indexes exist and before outdated datasets are re-parsed. A dataset whose migration is interrupted keeps
+     * its {@code data} field and is migrated again on the next start.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(1)
+    public void migrateLegacyDatasets() {
+        Query legacy = query(where("data").exists(true));
+        legacy.fields().include("_id");
+
+        List<ObjectId> ids = mongoTemplate.find(legacy, Document.class, collection()).stream()
+                .map(document -> document.getObjectId("_id"))
+                .collect(Collectors.toList());
+
+        for (ObjectId id : ids) {
+            try {
+                migrate(id);
+            } catch (Exception e) {
+                logger.error("Migration of legacy dataset {} failed", id, e);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void migrate(ObjectId id) throws Exception {
+        Dataset dataset = datasetRepository.findById(id.toHexString()).orElse(null);
+
+        Query byId = query(where("_id").is(id));
+        byId.fields().include("data");
+        Document document = mongoTemplate.findOne(byId, Document.class, collection());
+
+        if (dataset == null || document == null) {
+            return;
+        }
+
+        List<List<String>> lines = document.get("data", List.class);
+        datasetStorageService.store(dataset, lines != null ? lines : List.of());
+        mongoTemplate.updateFirst(query(where("_id").is(id)), new Update().unset("data"), collection());
+
+        logger.info("Migrated legacy dataset {} with {} rows", dataset.getId(), dataset.getRows());
+    }
+
+    private String collection() {
+        return mongoTemplate.getCollectionName(Dataset.class);
+    }
+}
@@ -0,0 +1,476 @@
+package com.digidworks.demo.service;
+
+import com.digidworks.demo.model.ColumnType;
+import com.digidworks.demo.model.Dataset;
+import com.digidworks.demo.model.DatasetChunk;
+import com.digidworks.demo.repository.DatasetChunkRepository;
+import com.digidworks.demo.repository.DatasetRepository;
+import com.opencsv.exceptions.CsvException;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Reads and writes dataset rows. Rows are stored as columnar {@link DatasetChunk} documents, one per parsed batch,
+ * while the {@link Dataset} document only keeps the metadata, the header and the column types.
+ */
+@Service
+public class DatasetStorageService {
+
+    /**
+     * The version of the chunk format. Datasets stored with an older version are re-parsed from their raw files on
+     * startup, so this must be incremented whenever the way rows are stored changes.
+     */
+    public static final int STORAGE_VERSION = 1;
+
+    @Autowired
+    private DatasetRepository datasetRepository;
+
+    @Autowired
+    private DatasetChunkRepository datasetChunkRepository;
+
+    @Autowired
+    private CsvParser csvParser;
+
+    @Autowired
+    private ParallelCsvParser parallelCsvParser;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Parses a CSV stream and stores it as the content of the dataset, replacing any previous content.
+     *
+     * @param dataset
+     * @param inputStream
+     * @return
+     * @throws IOException
+     * @throws CsvException
+     */
+    public Dataset store(Dataset dataset, InputStream inputStream) throws IOException, CsvException {
+        return store(dataset, handler -> csvParser.parse(inputStream, handler));
+    }
+
+    /**
+     * Parses a CSV file and stores it as the content of the dataset, replacing any previous content. Large files are
+     * parsed on multiple cores.
+     *
+     * @param dataset
+     * @param path
+     * @return
+     * @throws IOException
+     * @throws CsvException
+     */
+    public Dataset store(Dataset dataset, Path path) throws IOException, CsvException {
+        return store(dataset, handler -> parallelCsvParser.parse(path, handler));
+    }
+
+    /**
+     * Stores rows that were parsed before, header first, as the content of the dataset, replacing any previous
+     * content.
+     *
+     * @param dataset
+     * @param lines the header followed by the rows
+     * @return
+     * @throws IOException
+     * @throws CsvException
+     */
+    public Dataset store(Dataset dataset, List<List<String>> lines) throws IOException, CsvException {
+        return store(dataset, handler -> {
+            if (lines.isEmpty()) {
+                return 0;
+            }
+
+            handler.header(lines.get(0));
+
+            for (int start = 1; start < lines.size(); start += csvParser.getBatchSize()) {
+                handler.rows(lines.subList(start, Math.min(start + csvParser.getBatchSize(), lines.size())));
+            }
+
+            return lines.size() - 1;
+        });
+    }
+
+    /**
+     * Parses a CSV stream and appends its rows to the content of the dataset. The header of the stream must match the
+     * header of the dataset.
+     *
+     * @param dataset
+     * @param inputStream
+     * @return
+     * @throws IOException
+     * @throws CsvException
+     */
+    public Dataset append(Dataset dataset, InputStream inputStream) throws IOException, CsvException {
+        return append(dataset, handler -> csvParser.parse(inputStream, handler));
+    }
+
+    /**
+     * Parses a CSV file and appends its rows to the content of the dataset. The header of the file must match the
+     * header of the dataset.
+     *
+     * @param dataset
+     * @param path
+     * @return
+     * @throws IOException
+     * @throws CsvException
+     */
+    public Dataset append(Dataset dataset, Path path) throws IOException, CsvException {
+        return append(dataset, handler -> parallelCsvParser.parse(path, handler));
+    }
+
+    /**
+     * Writes the parsed rows as a new generation of chunks and switches the dataset to it with a single update once
+     * all of them are written. Until then readers keep seeing the previous content; if anything fails, the chunks
+     * written so far are removed and the dataset is left as it was. A new dataset is only inserted on success.
+     * <p>
+     * The switch only happens if the dataset still has the generation this store replaces, so of two stores running
+     * at once the one that finishes second fails with a conflict and removes its own chunks, and every generation is
+     * removed by exactly one store.
+     *
+     * @param dataset
+     * @param parser
+     * @return
+     * @throws IOException
+     * @throws CsvException
+     */
+    private Dataset store(Dataset dataset, Parser parser) throws IOException, CsvException {
+        if (dataset.getId() == null) {
+            dataset.setId(new ObjectId().toHexString());
+        }
+
+        String previousGeneration = dataset.getGeneration();
+        String generation = new ObjectId().toHexString();
+        ChunkWriter writer = new ChunkWriter(dataset, generation, 0, false);
+        long rows;
+
+        try {
+            rows = write(writer, parser);
+        } catch (IOException | CsvException | RuntimeException e) {
+            datasetChunkRepository.deleteAllByDatasetIdAndGeneration(dataset.getId(), generation);
+            throw e;
+        }
+
+        dataset.setGeneration(generation);
+        dataset.setHeader(writer.header);
+        dataset.setColumnTypes(writer.columnTypes);
+        dataset.setRows((int) rows);
+        dataset.setContentVersion(dataset.getContentVersion() + 1);
+        dataset.setStorageVersion(STORAGE_VERSION);
+        meterRegistry.summary("dataset.rows").record(rows);
+        boolean published = saveContent(dataset, where("_id").is(dataset.getId()).and("generation").is(previousGeneration),
+                new Update()
+                        .set("generation", generation)
+                        .set("header", dataset.getHeader())
+                        .set("storageVersion", STORAGE_VERSION), true);
+
+        if (!published) {
+            datasetChunkRepository.deleteAllByDatasetIdAndGeneration(dataset.getId(), generation);
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "The dataset was uploaded again in the meantime!");
+        }
+
+        datasetChunkRepository.deleteAllByDatasetIdAndGeneration(dataset.getId(), previousGeneration);
+
+        return dataset;
+    }
+
+    /**
+     * Writes the parsed rows as new chunks after the last chunk of the dataset. Readers only see rows up to the row
+     * count of the dataset, which is updated once all chunks are written. If anything fails, the chunks written so
+     * far are removed again, so the dataset is left as it was. The row count is only published if the dataset still
+     * has the generation, row count and content version the append started from; if it was uploaded again or
+     * appended to in the meantime, the append fails with a conflict and its chunks are removed as well. Concurrent
+     * appends to the same dataset are not supported: the unique chunk number index makes all but one of them fail.
+     *
+     * @param dataset
+     * @param parser
+     * @return
+     * @throws IOException
+     * @throws CsvException
+     */
+    private Dataset append(Dataset dataset, Parser parser) throws IOException, CsvException {
+        String generation = dataset.getGeneration();
+        Criteria expected = where("_id").is(dataset.getId())
+                .and("generation").is(generation)
+                .and("rows").is(dataset.getRows());
+
+        if (dataset.getContentVersion() == 0) {
+            expected.and("contentVersion").in(0L, null);
+        } else {
+            expected.and("contentVersion").is(dataset.getContentVersion());
+        }
+        int firstChunkNo = datasetChunkRepository.findFirstByDatasetIdAndGenerationOrderByChunkNoDesc(dataset.getId(), generation)
+                .map(chunk -> chunk.getChunkNo() + 1)
+                .orElse(0);
+        ChunkWriter writer = new ChunkWriter(dataset, generation, firstChunkNo, true);
+        long rows;
+
+        try {
+            rows = write(writer, parser);
+        } catch (IOException | CsvException | RuntimeException e) {
+            datasetChunkRepository.deleteChunkRange(dataset.getId(), generation, firstChunkNo, firstChunkNo + writer.writtenChunks);
+            throw e;
+        }
+
+        dataset.setColumnTypes(writer.columnTypes);
+        dataset.setRows((int) (dataset.getRows() + rows));
+        dataset.setContentVersion(dataset.getContentVersion() + 1);
+
+        if (!saveContent(dataset, expected, new Update(), false)) {
+            datasetChunkRepository.deleteChunkRange(dataset.getId(), generation, firstChunkNo, firstChunkNo + writer.writtenChunks);
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "The dataset was changed while the rows were appended, upload them again!");
+        }
+        meterRegistry.summary("dataset.rows").record(dataset.getRows());
+
+        return dataset;
+    }
+
+    private long write(ChunkWriter writer, Parser parser) throws IOException, CsvException {
+        long start = System.nanoTime();
+        long rows = parser.parse(writer);
+
+        meterRegistry.timer("dataset.parse").record(System.nanoTime() - start - writer.saveNanos, TimeUnit.NANOSECONDS);
+        meterRegistry.counter("dataset.ingested.rows").increment(rows);
+
+        return rows;
+    }
+
+    /**
+     * Streams the rows of a dataset in order, loading one chunk at a time. The stream must be closed.
+     *
+     * @param dataset
+     * @return
+     */
+    public Stream<List<String>> rows(Dataset dataset) {
+        return chunks(dataset).flatMap(chunk -> IntStream.range(0, chunk.getRowCount()).mapToObj(chunk::row));
+    }
+
+    /**
+     * Reads a range of rows, touching only the chunks that overlap it.
+     *
+     * @param dataset
+     * @param offset        the first row
+     * @param limit         the maximum number of rows
+     * @param columnIndexes the columns to return, or null for whole rows
+     * @return
+     */
+    public List<List<String>> rows(Dataset dataset, int offset, int limit, int[] columnIndexes) {
+        List<List<String>> result = new ArrayList<>();
+        int end = (int) Math.min((long) offset + limit, dataset.getRows());
+
+        if (offset >= end) {
+            return result;
+        }
+
+        Optional<DatasetChunk> first = datasetChunkRepository.findFirstByDatasetIdAndGenerationAndFirstRowLessThanEqualOrderByFirstRowDesc(
+                dataset.getId(), dataset.getGeneration(), offset);
+
+        if (first.isEmpty()) {
+            return result;
+        }
+
+        try (Stream<DatasetChunk> chunks = datasetChunkRepository
+                .findAllByDatasetIdAndGenerationAndChunkNoGreaterThanEqualAndFirstRowLessThanOrderByChunkNo(
+                        dataset.getId(), dataset.getGeneration(), first.get().getChunkNo(), end)) {
+            Iterator<DatasetChunk> it = chunks.iterator();
+
+            while (it.hasNext()) {
+                DatasetChunk chunk = it.next();
+                int from = Math.max(offset - chunk.getFirstRow(), 0);
+                int to = Math.min(end - chunk.getFirstRow(), chunk.getRowCount());
+
+                for (int i = from; i < to; i++) {
+                    result.add(columnIndexes == null ? chunk.row(i) : chunk.row(i, columnIndexes));
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Streams the chunks of the current generation of a dataset in order, up to its row count. The stream must be
+     * closed.
+     *
+     * @param dataset
+     * @return
+     */
+    public Stream<DatasetChunk> chunks(Dataset dataset) {
+        return chunks(dataset, 0);
+    }
+
+    /**
+     * Streams the chunks of a dataset in order, starting with the chunk that starts at the given row.
+     *
+     * @param dataset
+     * @param firstRow
+     * @return
+     */
+    public Stream<DatasetChunk> chunks(Dataset dataset, int firstRow) {
+        return datasetChunkRepository.findChunkRange(dataset.getId(), dataset.getGeneration(), firstRow, dataset.getRows());
+    }
+
+    /**
+     * Saves the name and the modification date of the dataset, leaving its content and its raw files to the
+     * ingestion that may be running at the same time.
+     *
+     * @param dataset
+     */
+    public void updateMetadata(Dataset dataset) {
+        mongoTemplate.updateFirst(query(where("_id").is(dataset.getId())),
+                new Update().set("name", dataset.getName()).set("modifiedAt", dataset.getModifiedAt()), Dataset.class);
+    }
+
+    /**
+     * Saves the raw files of the dataset without touching the rest of it.
+     *
+     * @param dataset
+     */
+    public void updateRawFileIds(Dataset dataset) {
+        mongoTemplate.updateFirst(query(where("_id").is(dataset.getId())),
+                new Update().set("rawFileIds", dataset.getRawFileIds()), Dataset.class);
+    }
+
+    /**
+     * Removes the chunks that an interrupted store or append left behind: other generations than the current one
+     * and chunks past the row count.
+     *
+     * @param dataset
+     */
+    public void discardPartialWrites(Dataset dataset) {
+        datasetChunkRepository.deleteAllByDatasetIdAndGenerationNot(dataset.getId(), dataset.getGeneration());
+        datasetChunkRepository.deleteChunksFrom(dataset.getId(), dataset.getGeneration(), dataset.getRows());
+    }
+
+    /**
+     * Deletes the dataset together with all of its chunks.
+     *
+     * @param dataset
+     */
+    public void delete(Dataset dataset) {
+        datasetChunkRepository.deleteAllByDatasetId(dataset.getId());
+        datasetRepository.delete(dataset);
+    }
+
+    /**
+     * Publishes the new content of the dataset with a single update of its content fields, together with the given
+     * ones, if the dataset still matches the expected state. The rest of the document is left alone, so concurrent
+     * metadata changes are kept. Timed as {@code dataset.save}, apart from the chunk inserts.
+     *
+     * @param dataset
+     * @param expected the state the dataset must be in, at least its id
+     * @param update
+     * @param insert   whether to insert the dataset whole if it does not exist yet
+     * @return whether the content was published
+     */
+    private boolean saveContent(Dataset dataset, Criteria expected, Update update, boolean insert) {
+        update.set("rows", dataset.getRows())
+                .set("columnTypes", dataset.getColumnTypes())
+                .set("contentVersion", dataset.getContentVersion())
+                .set("modifiedAt", dataset.getModifiedAt());
+
+        return meterRegistry.timer("dataset.save").record(() -> {
+            if (mongoTemplate.updateFirst(query(expected), update, Dataset.class).getMatchedCount() > 0) {
+                return true;
+            }
+
+            if (!insert || datasetRepository.existsById(dataset.getId())) {
+                return false;
+            }
+
+            datasetRepository.save(dataset);
+            return true;
+        });
+    }
+
+    private interface Parser {
+        long parse(CsvParser.RowHandler handler) throws IOException, CsvException;
+    }
+
+    /**
+     * Writes every parsed batch as the next chunk of a generation of the dataset. The header and the column types
+     * are collected here and only copied to the dataset once the rows are stored.
+     */
+    private class ChunkWriter implements CsvParser.RowHandler {
+        private final String datasetId;
+        private final String generation;
+        private final boolean append;
+        private List<String> header;
+        private List<ColumnType> columnTypes;
+        private int chunkNo;
+        private int nextRow;
+        private int writtenChunks;
+        private long saveNanos;
+
+        /**
+         * @param dataset
+         * @param generation the generation to write the chunks to
+         * @param chunkNo    the number of the first chunk to write
+         * @param append     whether the rows follow the existing rows of the dataset, under the same header
+         */
+        ChunkWriter(Dataset dataset, String generation, int chunkNo, boolean append) {
+            this.datasetId = dataset.getId();
+            this.generation = generation;
+            this.append = append;
+            this.chunkNo = chunkNo;
+            this.nextRow = append ? dataset.getRows() : 0;
+            this.header = append ? dataset.getHeader() : List.of();
+            this.columnTypes = append ? new ArrayList<>(dataset.getColumnTypes()) : List.of();
+        }
+
+        @Override
+        public void header(List<String> header) {
+            if (append) {
+                if (!header.equals(this.header)) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The header does not match the header of the dataset!");
+                }
+                return;
+            }
+
+            this.header = header;
+            this.columnTypes = new ArrayList<>(Collections.nCopies(header.size(), (ColumnType) null));
+        }
+
+        @Override
+        public void rows(List<List<String>> rows) {
+            DatasetChunk chunk = DatasetChunk.encode(datasetId, generation, chunkNo++, nextRow, rows, header.size());
+
+            for (int i = 0; i < header.size(); i++) {
+                columnTypes.set(i, chunk.getColumns().get(i).getType().merge(columnTypes.get(i)));
+            }
+
+            long start = System.nanoTime();
+            datasetChunkRepository.insert(chunk);
+            long elapsed = System.nanoTime() - start;
+
+            meterRegistry.timer("dataset.chunk.insert").record(elapsed, TimeUnit.NANOSECONDS);
+            saveNanos += elapsed;
+            writtenChunks++;
+            nextRow += rows.size();
+        }
+    }
+}
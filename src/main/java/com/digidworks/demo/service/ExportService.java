@@ -0,0 +1,168 @@
+package com.digidworks.demo.service;
+
+import com.digidworks.demo.model.Dataset;
+import com.digidworks.demo.model.DatasetChunk;
+import com.digidworks.demo.model.Visualization;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.opencsv.CSVWriter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Writes datasets and chart data as CSV or NDJSON. Rows are read from storage one chunk at a time and written through
+ * a fixed size buffer, so memory use does not depend on the size of the dataset.
+ */
+@Service
+public class ExportService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * How many chart points are written between two checks for a client that went away.
+     */
+    private static final int POINTS_PER_CHECK = 1000;
+
+    @Autowired
+    private DatasetStorageService datasetStorageService;
+
+    @Autowired
+    private ChartService chartService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Writes the header and the rows of a dataset as CSV.
+     *
+     * @param dataset
+     * @param outputStream
+     * @throws IOException
+     */
+    public void writeCsv(Dataset dataset, OutputStream outputStream) throws IOException {
+        CSVWriter writer = new CSVWriter(createWriter(outputStream));
+        long rows = 0;
+
+        writer.writeNext(dataset.getHeader().toArray(new String[0]), false);
+
+        try (Stream<DatasetChunk> chunks = datasetStorageService.chunks(dataset)) {
+            Iterator<DatasetChunk> it = chunks.iterator();
+
+            while (it.hasNext()) {
+                DatasetChunk chunk = it.next();
+
+                for (int row = 0; row < chunk.getRowCount(); row++) {
+                    writer.writeNext(chunk.row(row).toArray(new String[0]), false);
+                }
+                rows += chunk.getRowCount();
+                checkError(writer);
+            }
+        }
+
+        writer.flush();
+        checkError(writer);
+        meterRegistry.counter("dataset.exported.rows", "format", "csv").increment(rows);
+    }
+
+    /**
+     * Writes the rows of a dataset as newline delimited JSON, one object per row keyed by the header. Cells past the
+     * end of the header are left out.
+     *
+     * @param dataset
+     * @param outputStream
+     * @throws IOException
+     */
+    public void writeNdjson(Dataset dataset, OutputStream outputStream) throws IOException {
+        List<String> header = dataset.getHeader();
+        long rows = 0;
+
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(createWriter(outputStream));
+             Stream<DatasetChunk> chunks = datasetStorageService.chunks(dataset)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            Iterator<DatasetChunk> it = chunks.iterator();
+
+            while (it.hasNext()) {
+                DatasetChunk chunk = it.next();
+
+                for (int row = 0; row < chunk.getRowCount(); row++) {
+                    List<String> cells = chunk.row(row);
+
+                    generator.writeStartObject();
+                    for (int i = 0; i < header.size(); i++) {
+                        generator.writeStringField(header.get(i), i < cells.size() ? cells.get(i) : null);
+                    }
+                    generator.writeEndObject();
+                    generator.writeRaw('\n');
+                }
+                rows += chunk.getRowCount();
+            }
+        }
+
+        meterRegistry.counter("dataset.exported.rows", "format", "ndjson").increment(rows);
+    }
+
+    /**
+     * Writes visualization's data prepared for charting as CSV, with the names of the axes as header.
+     *
+     * @param vis
+     * @param maxPoints
+     * @param outputStream
+     * @throws IOException
+     */
+    public void writeChartCsv(Visualization vis, Integer maxPoints, OutputStream outputStream) throws IOException {
+        CSVWriter writer = new CSVWriter(createWriter(outputStream));
+        String[] line = new String[2];
+        long[] points = new long[1];
+
+        writer.writeNext(new String[]{vis.getXAxis(), vis.getYAxis()}, false);
+        chartService.writePoints(vis, maxPoints, (x, y) -> {
+            line[0] = x != null ? x.toString() : null;
+            line[1] = y != null ? y.toString() : null;
+            writer.writeNext(line, false);
+
+            if (++points[0] % POINTS_PER_CHECK == 0) {
+                checkError(writer);
+            }
+        });
+
+        writer.flush();
+        checkError(writer);
+    }
+
+    /**
+     * The writer is never closed, the servlet container owns the output stream.
+     *
+     * @param outputStream
+     * @return
+     */
+    private BufferedWriter createWriter(OutputStream outputStream) {
+        return new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * {@link CSVWriter} swallows write errors, so a client that went away is only noticed here. Flushes the writer.
+     *
+     * @param writer
+     * @throws IOException
+     */
+    private void checkError(CSVWriter writer) throws IOException {
+        if (writer.checkError()) {
+            IOException exception = writer.getException();
+            throw exception != null ? exception : new IOException("Could not write the export");
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.digidworks.demo.service;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.security.SignatureException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -10,9 +11,17 @@ import org.springframework.security.core.Authentication;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import java.security.Key;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+/**
+ * Issues and verifies JWTs. The signing key and the parser are built once, and recently verified tokens are kept
+ * in a small LRU cache until they expire, so a client that sends the same token with every request pays for the
+ * HMAC verification only once.
+ */
 @Component
 public class JwtService {
     private static final Logger logger = LoggerFactory.getLogger(JwtService.class);
@@ -23,6 +32,28 @@ public class JwtService {
     @Value("${csvVisualizationDemoApi.app.jwt.expiration}")
     private int jwtExpiration;
 
+    @Value("${csvVisualizationDemoApi.app.jwt.cache-max-entries:10000}")
+    private int maxCachedTokens;
+
+    private Key signingKey;
+
+    private JwtParser parser;
+
+    private final Map<String, Claims> verifiedTokens = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Claims> eldest) {
+            return size() > maxCachedTokens;
+        }
+    };
+
+    @PostConstruct
+    public void init() {
+        signingKey = Keys.hmacShaKeyFor(Decoders.BASE64.decode(jwtSecret));
+        parser = Jwts.parserBuilder()
+                .setSigningKey(signingKey)
+                .build();
+    }
+
     public String generateJwtToken(Authentication authentication) {
 
         UserDetails userPrincipal = (UserDetails) authentication.getPrincipal();
@@ -32,40 +63,57 @@ public class JwtService {
                 .setSubject((userPrincipal.getUsername()))
                 .setIssuedAt(new Date())
                 .setExpiration(new Date((new Date()).getTime() + jwtExpiration))
-                .signWith(getSigningKey(), SignatureAlgorithm.HS512)
+                .signWith(signingKey, SignatureAlgorithm.HS512)
                 .compact();
     }
 
-    public String getUserNameFromJwtToken(String token) {
+    /**
+     * Verifies a token and returns its claims.
+     *
+     * @param token
+     * @return the claims, or null if the token is not valid
+     */
+    public Claims parseValidClaims(String token) {
+        long now = System.currentTimeMillis();
 
-        return Jwts.parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
-                .parseClaimsJws(token).getBody().getSubject();
-    }
+        synchronized (verifiedTokens) {
+            Claims cached = verifiedTokens.get(token);
+
+            if (cached != null) {
+                if (isExpired(cached, now)) {
+                    verifiedTokens.remove(token);
+                    logger.error("JWT token is expired: {}", cached.getExpiration());
+                    return null;
+                }
+
+                return cached;
+            }
+        }
 
-    public boolean validateJwtToken(String authToken) {
         try {
-            Jwts.parserBuilder()
-                    .setSigningKey(getSigningKey())
-                    .build()
-                    .parseClaimsJws(authToken);
-            return true;
+            Claims claims = parser.parseClaimsJws(token).getBody();
+
+            synchronized (verifiedTokens) {
+                verifiedTokens.put(token, claims);
+            }
+
+            return claims;
         } catch (MalformedJwtException e) {
             logger.error("Invalid JWT token: {}", e.getMessage());
         } catch (ExpiredJwtException e) {
             logger.error("JWT token is expired: {}", e.getMessage());
         } catch (UnsupportedJwtException e) {
             logger.error("JWT token is unsupported: {}", e.getMessage());
+        } catch (SignatureException e) {
+            logger.error("Invalid JWT signature: {}", e.getMessage());
         } catch (IllegalArgumentException e) {
             logger.error("JWT claims string is empty: {}", e.getMessage());
         }
 
-        return false;
+        return null;
     }
 
-    private Key getSigningKey() {
-        byte[] keyBytes = Decoders.BASE64.decode(jwtSecret);
-        return Keys.hmacShaKeyFor(keyBytes);
+    private static boolean isExpired(Claims claims, long now) {
+        return claims.getExpiration() != null && claims.getExpiration().getTime() <= now;
     }
 }
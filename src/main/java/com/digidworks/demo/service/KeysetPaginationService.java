@@ -0,0 +1,122 @@
+package com.digidworks.demo.service;
+
+import com.digidworks.demo.dto.ScrollPage;
+import com.digidworks.demo.model.User;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Keyset pagination over the documents of a user, newest first.
+ * <p>
+ * Pages are ordered by {@code (createdAt, _id)} descending and the cursor is the key of the last document of the
+ * previous page, so every page is a single range scan of the {@code (user, createdAt, _id)} index no matter how deep
+ * it is, and no count query is run. One extra document is fetched to know whether there is a next page.
+ */
+@Service
+public class KeysetPaginationService {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${csvVisualizationDemoApi.app.pagination.default-size:50}")
+    private int defaultSize;
+
+    @Value("${csvVisualizationDemoApi.app.pagination.max-size:200}")
+    private int maxSize;
+
+    /**
+     * Fetches the page of documents after the cursor.
+     *
+     * @param type
+     * @param user
+     * @param after          the cursor returned with the previous page, null for the first page
+     * @param size           the page size, the default size if null
+     * @param createdAt      reads the creation date of a document
+     * @param id             reads the id of a document
+     * @param excludedFields fields that are not loaded
+     * @param <T>
+     * @return
+     */
+    public <T> ScrollPage<T> scroll(Class<T> type, User user, String after, Integer size,
+                                    Function<T, Date> createdAt, Function<T, String> id, String... excludedFields) {
+        int limit = size != null ? size : defaultSize;
+
+        if (limit < 1 || limit > maxSize) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Size must be between 1 and " + maxSize + "!");
+        }
+
+        Criteria criteria = Criteria.where("user").is(user);
+
+        if (after != null) {
+            Cursor cursor = Cursor.decode(after);
+            criteria.orOperator(
+                    Criteria.where("createdAt").lt(cursor.createdAt),
+                    Criteria.where("createdAt").is(cursor.createdAt).and("_id").lt(cursor.id)
+            );
+        }
+
+        Query query = new Query(criteria)
+                .with(Sort.by(Sort.Direction.DESC, "createdAt", "_id"))
+                .limit(limit + 1);
+
+        for (String field : excludedFields) {
+            query.fields().exclude(field);
+        }
+
+        List<T> content = mongoTemplate.find(query, type);
+        String next = null;
+
+        if (content.size() > limit) {
+            content = content.subList(0, limit);
+            T last = content.get(limit - 1);
+            next = new Cursor(createdAt.apply(last), new ObjectId(id.apply(last))).encode();
+        }
+
+        return new ScrollPage<>(content, next);
+    }
+
+    /**
+     * The key of a document: its creation date and id.
+     */
+    private static class Cursor {
+        private final Date createdAt;
+        private final ObjectId id;
+
+        Cursor(Date createdAt, ObjectId id) {
+            this.createdAt = createdAt;
+            this.id = id;
+        }
+
+        String encode() {
+            String key = createdAt.getTime() + ":" + id.toHexString();
+
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(String cursor) {
+            try {
+                String key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = key.indexOf(':');
+
+                return new Cursor(new Date(Long.parseLong(key.substring(0, separator))),
+                        new ObjectId(key.substring(separator + 1)));
+            } catch (IllegalArgumentException | StringIndexOutOfBoundsException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor!");
+            }
+        }
+    }
+}
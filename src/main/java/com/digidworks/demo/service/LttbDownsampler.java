@@ -0,0 +1,194 @@
+package com.digidworks.demo.service;
+
+import java.util.Arrays;
+
+/**
+ * Streaming Largest-Triangle-Three-Buckets downsampler.
+ * <p>
+ * The first and the last point are always kept. The points in between are split into {@code maxPoints - 2} buckets
+ * by their index and from every bucket the point that forms the largest triangle with the previously selected point
+ * and the average of the next bucket is kept. Points are consumed in order and at most two buckets are buffered, each
+ * as two reusable arrays of coordinates. The downsampler selects row indexes only, the caller reads the values of the
+ * selected rows afterwards, so no text is held for the points that are dropped.
+ */
+public class LttbDownsampler {
+
+    private final long total;
+    private final int buckets;
+    private final long[] selected;
+
+    private int selectedCount;
+    private long index;
+    private int fillingBucket;
+    private Bucket selecting;
+    private Bucket filling = new Bucket();
+    private Bucket spare;
+    private boolean hasLast;
+    private double lastX;
+    private double lastY;
+    private double selectedX;
+    private double selectedY;
+
+    /**
+     * @param total     the number of points that will be added
+     * @param maxPoints the number of points to keep, at least 3
+     */
+    public LttbDownsampler(long total, int maxPoints) {
+        this.total = total;
+        this.buckets = maxPoints - 2;
+        this.selected = new long[maxPoints];
+    }
+
+    /**
+     * Adds the next point of the series. Points are indexed in the order they are added, starting from 0.
+     *
+     * @param xValue the numeric position of the point on the X axis
+     * @param yValue the numeric position of the point on the Y axis
+     */
+    public void add(double xValue, double yValue) {
+        long i = index++;
+
+        if (i == 0) {
+            select(i, xValue, yValue);
+            return;
+        }
+
+        if (i >= total - 1) {
+            if (hasLast) {
+                filling.add(i - 1, lastX, lastY);
+            }
+            hasLast = true;
+            lastX = xValue;
+            lastY = yValue;
+            return;
+        }
+
+        while (fillingBucket < buckets - 1 && i >= boundary(fillingBucket + 1)) {
+            if (selecting != null) {
+                select(selecting, filling.averageX(), filling.averageY());
+            }
+
+            Bucket next = spare != null ? spare : new Bucket();
+            next.clear();
+            spare = selecting;
+            selecting = filling;
+            filling = next;
+            fillingBucket++;
+        }
+
+        filling.add(i, xValue, yValue);
+    }
+
+    /**
+     * Selects the points of the remaining buckets.
+     *
+     * @return the indexes of the kept points, in ascending order
+     */
+    public long[] finish() {
+        if (selecting != null) {
+            if (!filling.isEmpty()) {
+                select(selecting, filling.averageX(), filling.averageY());
+            } else if (hasLast) {
+                select(selecting, lastX, lastY);
+            } else {
+                select(selecting, selecting.averageX(), selecting.averageY());
+            }
+        }
+
+        if (!filling.isEmpty()) {
+            if (hasLast) {
+                select(filling, lastX, lastY);
+            } else {
+                select(filling, filling.averageX(), filling.averageY());
+            }
+        }
+
+        if (hasLast) {
+            select(index - 1, lastX, lastY);
+        }
+
+        return Arrays.copyOf(selected, selectedCount);
+    }
+
+    /**
+     * The index of the first point of a bucket.
+     *
+     * @param bucket
+     * @return
+     */
+    private long boundary(int bucket) {
+        return 1 + bucket * (total - 2) / buckets;
+    }
+
+    private void select(Bucket bucket, double nextX, double nextY) {
+        int selectedPoint = -1;
+        double maxArea = -1;
+
+        for (int point = 0; point < bucket.size; point++) {
+            double area = Math.abs((selectedX - nextX) * (bucket.ys[point] - selectedY)
+                    - (selectedX - bucket.xs[point]) * (nextY - selectedY));
+
+            if (area > maxArea) {
+                maxArea = area;
+                selectedPoint = point;
+            }
+        }
+
+        if (selectedPoint >= 0) {
+            select(bucket.first + selectedPoint, bucket.xs[selectedPoint], bucket.ys[selectedPoint]);
+        }
+    }
+
+    private void select(long point, double xValue, double yValue) {
+        selected[selectedCount++] = point;
+        selectedX = xValue;
+        selectedY = yValue;
+    }
+
+    /**
+     * The coordinates of consecutive points, starting from the point with index {@code first}.
+     */
+    private static class Bucket {
+        private double[] xs = new double[16];
+        private double[] ys = new double[16];
+        private int size;
+        private long first;
+        private double sumX;
+        private double sumY;
+
+        void add(long point, double xValue, double yValue) {
+            if (size == 0) {
+                first = point;
+            }
+
+            if (size == xs.length) {
+                xs = Arrays.copyOf(xs, size * 2);
+                ys = Arrays.copyOf(ys, size * 2);
+            }
+
+            xs[size] = xValue;
+            ys[size] = yValue;
+            size++;
+            sumX += xValue;
+            sumY += yValue;
+        }
+
+        void clear() {
+            size = 0;
+            sumX = 0;
+            sumY = 0;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        double averageX() {
+            return sumX / size;
+        }
+
+        double averageY() {
+            return sumY / size;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.digidworks.demo.service;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Multi-core parser for large CSV files on disk.
+ * <p>
+ * The calling thread scans the file once for record boundaries (newlines outside of quotes) and cuts it into splits
+ * of roughly equal size. The splits are parsed on a fork-join pool and their rows are handed to the handler in file
+ * order, in batches of the same size as {@link CsvParser} uses. Only a bounded number of splits is in flight at any
+ * time. Small files are parsed sequentially by {@link CsvParser}, and so are files whose header cannot be split off
+ * cleanly. When a split grows far beyond the split size, the rest of the file is parsed sequentially as well.
+ */
+@Component
+public class ParallelCsvParser {
+
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_SPLIT_FACTOR = 16;
+
+    @Autowired
+    private CsvParser csvParser;
+
+    @Value("${csvVisualizationDemoApi.app.ingestion.parallel-threshold:64MB}")
+    private DataSize parallelThreshold;
+
+    @Value("${csvVisualizationDemoApi.app.ingestion.split-size:2MB}")
+    private DataSize splitSize;
+
+    @Value("${csvVisualizationDemoApi.app.ingestion.parallelism:0}")
+    private int parallelism;
+
+    private ForkJoinPool pool;
+
+    @PostConstruct
+    public void init() {
+        if (parallelism <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        pool.shutdown();
+    }
+
+    /**
+     * Parses a CSV file and pushes its header and rows to the handler, with the same semantics as
+     * {@link CsvParser#parse(InputStream, CsvParser.RowHandler)}.
+     *
+     * @param path
+     * @param handler
+     * @return the number of data rows (header excluded)
+     * @throws IOException
+     * @throws CsvException
+     */
+    public long parse(Path path, CsvParser.RowHandler handler) throws IOException, CsvException {
+        long size = Files.size(path);
+
+        if (size < parallelThreshold.toBytes()) {
+            try (InputStream inputStream = Files.newInputStream(path)) {
+                return csvParser.parse(inputStream, handler);
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+             InputStream inputStream = Files.newInputStream(path)) {
+            RecordScanner scanner = new RecordScanner(inputStream);
+            long headerEnd = scanner.advance(1);
+            List<String[]> headerLines = headerEnd <= maxSplitSize() ? parseSplit(channel, 0, headerEnd) : List.of();
+
+            if (headerLines.size() != 1) {
+                try (InputStream sequentialInputStream = Files.newInputStream(path)) {
+                    return csvParser.parse(sequentialInputStream, handler);
+                }
+            }
+
+            String[] firstLine = headerLines.get(0);
+            boolean[] emptyColumns = CsvParser.emptyColumns(firstLine);
+            handler.header(CsvParser.filterColumns(firstLine, emptyColumns));
+
+            Batcher batcher = new Batcher(handler, csvParser.getBatchSize());
+            Deque<CompletableFuture<List<String[]>>> inFlight = new ArrayDeque<>();
+            long start = headerEnd;
+
+            try {
+                while (start < size) {
+                    long splitStart = start;
+                    long splitEnd = scanner.advance(start + splitSize.toBytes());
+
+                    if (splitEnd - splitStart > maxSplitSize()) {
+                        while (!inFlight.isEmpty()) {
+                            batcher.add(inFlight.poll().join(), emptyColumns);
+                        }
+
+                        parseRemainder(channel, splitStart, emptyColumns, batcher);
+                        break;
+                    }
+
+                    inFlight.add(CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return parseSplit(channel, splitStart, splitEnd);
+                        } catch (IOException | CsvException e) {
+                            throw new CompletionException(e);
+                        }
+                    }, pool));
+                    start = splitEnd;
+
+                    if (inFlight.size() > parallelism) {
+                        batcher.add(inFlight.poll().join(), emptyColumns);
+                    }
+                }
+
+                while (!inFlight.isEmpty()) {
+                    batcher.add(inFlight.poll().join(), emptyColumns);
+                }
+            } catch (CompletionException e) {
+                inFlight.forEach(future -> future.cancel(true));
+
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                } else if (e.getCause() instanceof CsvException) {
+                    throw (CsvException) e.getCause();
+                }
+                throw e;
+            }
+
+            return batcher.flush();
+        }
+    }
+
+    /**
+     * The largest split that is parsed from a buffer. A longer split comes from a huge quoted field or an unbalanced
+     * quote that runs to the end of the file.
+     *
+     * @return
+     */
+    private long maxSplitSize() {
+        return Math.min(splitSize.toBytes() * MAX_SPLIT_FACTOR, Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * Parses the file from a record boundary to its end on the calling thread, streaming instead of buffering.
+     *
+     * @param channel
+     * @param start
+     * @param emptyColumns
+     * @param batcher
+     * @throws IOException
+     * @throws CsvException
+     */
+    private void parseRemainder(FileChannel channel, long start, boolean[] emptyColumns, Batcher batcher) throws IOException, CsvException {
+        channel.position(start);
+
+        try (CSVReader reader = new CSVReader(new InputStreamReader(Channels.newInputStream(channel)))) {
+            String[] currLine;
+
+            while ((currLine = reader.readNext()) != null) {
+                batcher.add(currLine, emptyColumns);
+            }
+        }
+    }
+
+    /**
+     * Parses the records between two record boundaries of the file.
+     *
+     * @param channel
+     * @param start
+     * @param end
+     * @return
+     * @throws IOException
+     * @throws CsvException
+     */
+    private List<String[]> parseSplit(FileChannel channel, long start, long end) throws IOException, CsvException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of file at " + (start + buffer.position()));
+            }
+        }
+
+        List<String[]> lines = new ArrayList<>();
+
+        try (CSVReader reader = new CSVReader(new InputStreamReader(new ByteArrayInputStream(buffer.array())))) {
+            String[] currLine;
+
+            while ((currLine = reader.readNext()) != null) {
+                lines.add(currLine);
+            }
+        }
+
+        return lines;
+    }
+
+    /**
+     * Finds record boundaries: positions right after a line break (LF, CR or CRLF, like the line reader of opencsv)
+     * that is not inside a quoted field. A backslash escapes a following quote or backslash, as in the default opencsv
+     * parser.
+     */
+    private static class RecordScanner {
+        private final InputStream inputStream;
+        private final byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+        private int length;
+        private int index;
+        private long position;
+        private boolean inQuotes;
+
+        RecordScanner(InputStream inputStream) {
+            this.inputStream = inputStream;
+        }
+
+        /**
+         * Consumes the input up to the first record boundary at or after the target position.
+         *
+         * @param target
+         * @return the boundary, or the end of the input
+         * @throws IOException
+         */
+        long advance(long target) throws IOException {
+            while (true) {
+                if (index == length) {
+                    length = inputStream.read(buffer);
+                    index = 0;
+
+                    if (length < 0) {
+                        length = 0;
+                        return position;
+                    }
+                }
+
+                byte b = buffer[index++];
+                position++;
+
+                if (b == '\\') {
+                    int next = peek();
+
+                    if (next == '"' || next == '\\') {
+                        index++;
+                        position++;
+                    }
+                } else if (b == '"') {
+                    inQuotes = !inQuotes;
+                } else if ((b == '\n' || b == '\r') && !inQuotes) {
+                    if (b == '\r' && peek() == '\n') {
+                        index++;
+                        position++;
+                    }
+
+                    if (position >= target) {
+                        return position;
+                    }
+                }
+            }
+        }
+
+        private int peek() throws IOException {
+            if (index == length) {
+                length = inputStream.read(buffer);
+                index = 0;
+
+                if (length < 0) {
+                    length = 0;
+                    return -1;
+                }
+            }
+
+            return buffer[index];
+        }
+    }
+
+    /**
+     * Filters the parsed records and regroups them into batches of a fixed size.
+     */
+    private static class Batcher {
+        private final CsvParser.RowHandler handler;
+        private final int batchSize;
+        private List<List<String>> batch;
+        private long rows;
+
+        Batcher(CsvParser.RowHandler handler, int batchSize) {
+            this.handler = handler;
+            this.batchSize = batchSize;
+            this.batch = new ArrayList<>(batchSize);
+        }
+
+        void add(List<String[]> lines, boolean[] emptyColumns) {
+            for (String[] line : lines) {
+                add(line, emptyColumns);
+            }
+        }
+
+        void add(String[] line, boolean[] emptyColumns) {
+            batch.add(CsvParser.filterColumns(line, emptyColumns));
+            rows++;
+
+            if (batch.size() >= batchSize) {
+                handler.rows(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+
+        long flush() {
+            if (!batch.isEmpty()) {
+                handler.rows(batch);
+            }
+
+            return rows;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.digidworks.demo.service;
+
+import com.digidworks.demo.model.Dataset;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Keeps the uploaded CSV files of datasets in GridFS.
+ * <p>
+ * A dataset has one raw file per upload: the file it was created (or last replaced) with, followed by the files of
+ * the rows appended to it since. Appended files are stored without their header, so the files read back one after
+ * the other give a single CSV file with the content of the dataset.
+ */
+@Service
+public class RawFileService {
+
+    @Autowired
+    private GridFsTemplate gridFsTemplate;
+
+    /**
+     * Streams an upload into GridFS. The stream is copied chunk by chunk and never held in memory as a whole.
+     *
+     * @param dataset
+     * @param inputStream
+     * @param skipHeader  whether to leave out the first record of the upload
+     * @return the id of the raw file
+     */
+    public String store(Dataset dataset, InputStream inputStream, boolean skipHeader) {
+        InputStream content = skipHeader ? new HeaderSkippingInputStream(inputStream) : inputStream;
+        ObjectId id = gridFsTemplate.store(content, dataset.getName() + ".csv", "text/csv",
+                new Document("datasetId", dataset.getId()));
+
+        return id.toHexString();
+    }
+
+    /**
+     * Whether the original file of the dataset is available.
+     *
+     * @param dataset
+     * @return
+     */
+    public boolean exists(Dataset dataset) {
+        return dataset.getRawFileIds() != null && !dataset.getRawFileIds().isEmpty();
+    }
+
+    /**
+     * Opens the raw files of the dataset as one stream. A newline is put between two files when the first one does
+     * not end with one. The stream must be closed.
+     *
+     * @param dataset
+     * @return
+     */
+    public InputStream open(Dataset dataset) {
+        return new RawFilesInputStream(dataset.getRawFileIds().iterator());
+    }
+
+    /**
+     * Deletes raw files.
+     *
+     * @param ids
+     */
+    public void delete(List<String> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return;
+        }
+
+        gridFsTemplate.delete(query(where("_id").in(ids.stream().map(ObjectId::new).collect(Collectors.toList()))));
+    }
+
+    /**
+     * Deletes the raw files that were stored for the dataset but never became part of it, e.g. because the
+     * ingestion was interrupted.
+     *
+     * @param dataset
+     */
+    public void deleteUnreferenced(Dataset dataset) {
+        List<ObjectId> referenced = dataset.getRawFileIds() == null ? List.of()
+                : dataset.getRawFileIds().stream().map(ObjectId::new).collect(Collectors.toList());
+
+        gridFsTemplate.delete(query(where("metadata.datasetId").is(dataset.getId()).and("_id").nin(referenced)));
+    }
+
+    private InputStream openFile(String id) throws IOException {
+        GridFSFile file = gridFsTemplate.findOne(query(where("_id").is(new ObjectId(id))));
+
+        if (file == null) {
+            throw new FileNotFoundException("Raw file " + id + " does not exist");
+        }
+
+        return gridFsTemplate.getResource(file).getInputStream();
+    }
+
+    /**
+     * Reads the raw files of a dataset one after the other, opening each one only when the previous one is done.
+     */
+    private class RawFilesInputStream extends InputStream {
+        private final Iterator<String> ids;
+        private InputStream current;
+        private boolean started;
+        private int last = '\n';
+
+        RawFilesInputStream(Iterator<String> ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            while (true) {
+                if (current == null) {
+                    if (!ids.hasNext()) {
+                        return -1;
+                    }
+
+                    boolean separate = started && last != '\n';
+                    current = openFile(ids.next());
+                    started = true;
+
+                    if (separate) {
+                        last = '\n';
+                        b[off] = '\n';
+                        return 1;
+                    }
+                }
+
+                int n = current.read(b, off, len);
+
+                if (n > 0) {
+                    last = b[off + n - 1];
+                    return n;
+                }
+
+                if (n < 0) {
+                    current.close();
+                    current = null;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * Drops the first record of a CSV stream: everything up to the first line break that is not inside a quoted
+     * field. A line break is {@code \r\n}, {@code \n} or a lone {@code \r}, as in {@link ParallelCsvParser}. A
+     * backslash escapes a following quote or backslash, as in the default opencsv parser.
+     */
+    private static class HeaderSkippingInputStream extends FilterInputStream {
+        private boolean skipped;
+
+        HeaderSkippingInputStream(InputStream inputStream) {
+            super(new BufferedInputStream(inputStream));
+        }
+
+        @Override
+        public int read() throws IOException {
+            skipHeader();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            skipHeader();
+            return super.read(b, off, len);
+        }
+
+        private void skipHeader() throws IOException {
+            if (skipped) {
+                return;
+            }
+            skipped = true;
+
+            boolean inQuotes = false;
+            int c = in.read();
+
+            while (c >= 0) {
+                if (c == '\\') {
+                    c = in.read();
+
+                    if (c == '"' || c == '\\') {
+                        c = in.read();
+                    }
+                    continue;
+                }
+
+                if (c == '"') {
+                    inQuotes = !inQuotes;
+                } else if (c == '\n' && !inQuotes) {
+                    return;
+                } else if (c == '\r' && !inQuotes) {
+                    in.mark(1);
+
+                    if (in.read() != '\n') {
+                        in.reset();
+                    }
+                    return;
+                }
+
+                c = in.read();
+            }
+        }
+    }
+}
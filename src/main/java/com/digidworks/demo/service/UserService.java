@@ -1,20 +1,89 @@
 package com.digidworks.demo.service;
 
+import com.digidworks.demo.model.User;
 import com.digidworks.demo.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 @Service
 public class UserService implements UserDetailsService {
 
     @Autowired
     private UserRepository repository;
 
+    @Value("${csvVisualizationDemoApi.app.user-cache.max-entries:10000}")
+    private int maxEntries;
+
+    @Value("${csvVisualizationDemoApi.app.user-cache.ttl:5m}")
+    private Duration ttl;
+
+    private final Map<String, CachedUser> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedUser> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
         return repository.findByEmail(username).orElseThrow(() -> new RuntimeException("User not found: " + username));
     }
+
+    /**
+     * Loads the user behind an authenticated request. Users are kept in a bounded LRU cache for a short time, so
+     * consecutive requests of the same user do not hit the database. Password checks must keep using
+     * {@link #loadUserByUsername(String)}.
+     *
+     * @param username
+     * @return
+     */
+    public User loadAuthenticatedUser(String username) {
+        long now = System.nanoTime();
+
+        synchronized (cache) {
+            CachedUser cached = cache.get(username);
+
+            if (cached != null && now - cached.loadedAt < ttl.toNanos()) {
+                return cached.user;
+            }
+        }
+
+        User user = (User) loadUserByUsername(username);
+
+        synchronized (cache) {
+            cache.put(username, new CachedUser(user, now));
+        }
+
+        return user;
+    }
+
+    /**
+     * Drops a cached user. Must be called whenever the password or the roles of an existing user change, which
+     * nothing in the application does yet; until then a change only takes effect once the cached user expires.
+     *
+     * @param username
+     */
+    public void evict(String username) {
+        synchronized (cache) {
+            cache.remove(username);
+        }
+    }
+
+    private static class CachedUser {
+        private final User user;
+        private final long loadedAt;
+
+        CachedUser(User user, long loadedAt) {
+            this.user = user;
+            this.loadedAt = loadedAt;
+        }
+    }
 }
@@ -0,0 +1,314 @@
+package com.digidworks.demo.service;
+
+import com.digidworks.demo.model.Dataset;
+import com.digidworks.demo.model.DatasetChunk;
+import com.digidworks.demo.model.Visualization;
+import com.digidworks.demo.model.VisualizationAggregate;
+import com.digidworks.demo.repository.VisualizationAggregateRepository;
+import org.bson.BSONException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+/**
+ * Maintains the materialized aggregates of aggregated visualizations.
+ * <p>
+ * An aggregate is computed when the visualization is saved, recomputed when its dataset is uploaded again and
+ * extended with only the new rows when rows are appended to the dataset. Chart reads use the stored aggregate as
+ * long as it matches the current content of the dataset, so they do not scan the dataset. Aggregates with more
+ * than {@code maxGroups} groups, or larger than {@code maxSize} once encoded, are not stored and are computed on
+ * every read instead.
+ */
+@Service
+public class VisualizationAggregateService {
+
+    private static final Logger logger = LoggerFactory.getLogger(VisualizationAggregateService.class);
+
+    /**
+     * Three array elements of at most 9 bytes of type and index name each, 5 bytes of string length and terminator
+     * for the key and 8 bytes each for the sum and the count.
+     */
+    private static final int BYTES_PER_GROUP = 3 * 9 + 5 + 8 + 8;
+
+    @Autowired
+    private VisualizationAggregateRepository visualizationAggregateRepository;
+
+    @Autowired
+    private DatasetStorageService datasetStorageService;
+
+    @Value("${csvVisualizationDemoApi.app.chart.parallel-threshold:100000}")
+    private int parallelThreshold;
+
+    @Value("${csvVisualizationDemoApi.app.aggregates.max-groups:100000}")
+    private int maxGroups;
+
+    /**
+     * Kept below the 16MB limit of MongoDB documents, as the size of an aggregate is only estimated.
+     */
+    @Value("${csvVisualizationDemoApi.app.aggregates.max-size:12MB}")
+    private DataSize maxSize;
+
+    /**
+     * Get the aggregate of the given columns of the visualization's dataset, the stored one if it is still valid.
+     *
+     * @param vis
+     * @param keyColumn
+     * @param valueColumn
+     * @return
+     */
+    public VisualizationAggregate aggregate(Visualization vis, String keyColumn, String valueColumn) {
+        Dataset dataset = vis.getDataset();
+        Optional<VisualizationAggregate> stored = visualizationAggregateRepository.findById(vis.getId());
+
+        if (stored.isPresent() && stored.get().isFor(dataset, keyColumn, valueColumn)) {
+            return stored.get();
+        }
+
+        VisualizationAggregate aggregate = compute(vis.getId(), dataset, keyColumn, valueColumn);
+        save(aggregate);
+
+        return aggregate;
+    }
+
+    /**
+     * Computes the aggregate of the given columns of a dataset, without storing it.
+     *
+     * @param visualizationId
+     * @param dataset
+     * @param keyColumn
+     * @param valueColumn
+     * @return
+     */
+    public VisualizationAggregate compute(String visualizationId, Dataset dataset, String keyColumn, String valueColumn) {
+        ChartAggregator aggregator = scan(dataset, keyColumn, valueColumn, new ChartAggregator(), 0);
+
+        return toAggregate(visualizationId, dataset, keyColumn, valueColumn, aggregator);
+    }
+
+    /**
+     * Stores the aggregate of a visualization that was just saved, or drops it if the visualization is not
+     * aggregated. The dataset of the visualization must be fully loaded.
+     *
+     * @param vis
+     */
+    public void materialize(Visualization vis) {
+        String keyColumn;
+        String valueColumn;
+
+        if (vis.isXAxisAggregateSum() || vis.isXAxisAggregateAvg()) {
+            keyColumn = vis.getXAxis();
+            valueColumn = vis.getYAxis();
+        } else if (vis.isYAxisAggregateSum() || vis.isYAxisAggregateAvg()) {
+            keyColumn = vis.getYAxis();
+            valueColumn = vis.getXAxis();
+        } else {
+            visualizationAggregateRepository.deleteById(vis.getId());
+            return;
+        }
+
+        List<String> header = vis.getDataset().getHeader();
+
+        if (!header.contains(keyColumn) || !header.contains(valueColumn)) {
+            visualizationAggregateRepository.deleteById(vis.getId());
+            return;
+        }
+
+        aggregate(vis, keyColumn, valueColumn);
+    }
+
+    /**
+     * Recomputes the stored aggregates of a dataset after its content was replaced. Aggregates of the same columns
+     * are computed with a single scan.
+     *
+     * @param dataset
+     */
+    public void refresh(Dataset dataset) {
+        Map<List<String>, ChartAggregator> computed = new HashMap<>();
+
+        for (VisualizationAggregate aggregate : visualizationAggregateRepository.findAllByDatasetId(dataset.getId())) {
+            refresh(aggregate, dataset, computed);
+        }
+    }
+
+    /**
+     * Adds the appended rows to the stored aggregates of a dataset. Aggregates that were not up to date before the
+     * append are recomputed.
+     *
+     * @param dataset
+     * @param previousVersion the content version of the dataset before the append
+     */
+    public void extend(Dataset dataset, long previousVersion) {
+        Map<List<String>, ChartAggregator> computed = new HashMap<>();
+
+        for (VisualizationAggregate aggregate : visualizationAggregateRepository.findAllByDatasetId(dataset.getId())) {
+            if (aggregate.getDatasetVersion() != previousVersion || aggregate.getRows() > dataset.getRows()
+                    || !hasColumns(dataset, aggregate)) {
+                refresh(aggregate, dataset, computed);
+                continue;
+            }
+
+            ChartAggregator aggregator = ChartAggregator.restore(aggregate.getKeys(), aggregate.getSums(), aggregate.getCounts());
+            scan(dataset, aggregate.getKeyColumn(), aggregate.getValueColumn(), aggregator, aggregate.getRows());
+            save(toAggregate(aggregate.getId(), dataset, aggregate.getKeyColumn(), aggregate.getValueColumn(), aggregator));
+        }
+    }
+
+    public void deleteVisualization(String visualizationId) {
+        visualizationAggregateRepository.deleteById(visualizationId);
+    }
+
+    public void deleteDataset(String datasetId) {
+        visualizationAggregateRepository.deleteAllByDatasetId(datasetId);
+    }
+
+    private void refresh(VisualizationAggregate aggregate, Dataset dataset, Map<List<String>, ChartAggregator> computed) {
+        if (!hasColumns(dataset, aggregate)) {
+            visualizationAggregateRepository.delete(aggregate);
+            return;
+        }
+
+        ChartAggregator aggregator = computed.computeIfAbsent(
+                List.of(aggregate.getKeyColumn(), aggregate.getValueColumn()),
+                columns -> scan(dataset, columns.get(0), columns.get(1), new ChartAggregator(), 0));
+
+        save(toAggregate(aggregate.getId(), dataset, aggregate.getKeyColumn(), aggregate.getValueColumn(), aggregator));
+    }
+
+    private boolean hasColumns(Dataset dataset, VisualizationAggregate aggregate) {
+        return dataset.getHeader().contains(aggregate.getKeyColumn())
+                && dataset.getHeader().contains(aggregate.getValueColumn());
+    }
+
+    /**
+     * Stores the aggregate, or drops the stored one when the aggregate is too large to be stored. A failed write
+     * only costs the next read a scan, so it is logged rather than failing the request that computed the aggregate.
+     *
+     * @param aggregate
+     */
+    private void save(VisualizationAggregate aggregate) {
+        if (aggregate.getKeys().size() > maxGroups || estimateSize(aggregate) > maxSize.toBytes()) {
+            visualizationAggregateRepository.deleteById(aggregate.getId());
+            return;
+        }
+
+        try {
+            visualizationAggregateRepository.save(aggregate);
+        } catch (DataAccessException | BSONException e) {
+            logger.warn("Could not store the aggregate of visualization {}", aggregate.getId(), e);
+            visualizationAggregateRepository.deleteById(aggregate.getId());
+        }
+    }
+
+    /**
+     * Estimates the BSON size of an aggregate: the UTF-8 keys plus the type, the index name and the value of an
+     * element in each of the three arrays per group, and a kilobyte for the other fields.
+     *
+     * @param aggregate
+     * @return
+     */
+    private long estimateSize(VisualizationAggregate aggregate) {
+        long size = 1024;
+
+        for (String key : aggregate.getKeys()) {
+            size += BYTES_PER_GROUP + utf8Length(key);
+        }
+
+        return size;
+    }
+
+    private static long utf8Length(String value) {
+        long length = 0;
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * Groups the rows from the given row on by the key column and sums the value column into the aggregator.
+     * Non-numeric values count as 0.
+     * <p>
+     * When at least {@code parallelThreshold} rows are scanned, the chunks are prepared on the common fork-join pool
+     * and merged in chunk order, which gives exactly the same result as the sequential path.
+     *
+     * @param dataset
+     * @param keyColumn
+     * @param valueColumn
+     * @param aggregator
+     * @param firstRow
+     * @return
+     */
+    private ChartAggregator scan(Dataset dataset, String keyColumn, String valueColumn, ChartAggregator aggregator, int firstRow) {
+        int keyIndex = dataset.getHeader().lastIndexOf(keyColumn);
+        int valueIndex = dataset.getHeader().lastIndexOf(valueColumn);
+        boolean parallel = dataset.getRows() - firstRow >= parallelThreshold;
+        Deque<CompletableFuture<ChartAggregator.Partial>> inFlight = new ArrayDeque<>();
+
+        try (Stream<DatasetChunk> chunks = firstRow == 0
+                ? datasetStorageService.chunks(dataset)
+                : datasetStorageService.chunks(dataset, firstRow)) {
+            Iterator<DatasetChunk> it = chunks.iterator();
+
+            while (it.hasNext()) {
+                DatasetChunk chunk = it.next();
+
+                if (!parallel) {
+                    aggregator.add(chunk.getColumns().get(keyIndex), chunk.getColumns().get(valueIndex));
+                    continue;
+                }
+
+                inFlight.add(CompletableFuture.supplyAsync(() -> ChartAggregator.partial(
+                        chunk.getColumns().get(keyIndex), chunk.getColumns().get(valueIndex))));
+
+                if (inFlight.size() > ForkJoinPool.getCommonPoolParallelism()) {
+                    aggregator.merge(inFlight.poll().join());
+                }
+            }
+
+            while (!inFlight.isEmpty()) {
+                aggregator.merge(inFlight.poll().join());
+            }
+        }
+
+        return aggregator;
+    }
+
+    private VisualizationAggregate toAggregate(String visualizationId, Dataset dataset, String keyColumn,
+                                               String valueColumn, ChartAggregator aggregator) {
+        int size = aggregator.size();
+        List<String> keys = new ArrayList<>(size);
+        double[] sums = new double[size];
+        long[] counts = new long[size];
+
+        for (int group = 0; group < size; group++) {
+            keys.add(aggregator.key(group));
+            sums[group] = aggregator.sum(group);
+            counts[group] = aggregator.count(group);
+        }
+
+        return new VisualizationAggregate(visualizationId, dataset.getId(), keyColumn, valueColumn,
+                dataset.getRows(), dataset.getContentVersion(), keys, sums, counts);
+    }
+}
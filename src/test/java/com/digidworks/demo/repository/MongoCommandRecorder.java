@@ -0,0 +1,78 @@
+package com.digidworks.demo.repository;
+
+import com.mongodb.MongoClientOptions;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Records the commands sent to MongoDB and the number of bytes MongoDB replied with.
+ */
+public class MongoCommandRecorder implements CommandListener {
+
+    private final List<BsonDocument> commands = new CopyOnWriteArrayList<>();
+    private final AtomicLong responseBytes = new AtomicLong();
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        commands.add(event.getCommand().clone());
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        responseBytes.addAndGet(new RawBsonDocument(event.getResponse(), new BsonDocumentCodec()).getByteBuffer().remaining());
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+    }
+
+    public void reset() {
+        commands.clear();
+        responseBytes.set(0);
+    }
+
+    /**
+     * The recorded commands of the given name run on the given collection, e.g. the {@code find} commands on
+     * {@code dataset}.
+     *
+     * @param name
+     * @param collection
+     * @return
+     */
+    public List<BsonDocument> commands(String name, String collection) {
+        return commands.stream()
+                .filter(command -> command.getFirstKey().equals(name))
+                .filter(command -> command.get(name).isString() && command.getString(name).getValue().equals(collection))
+                .collect(Collectors.toList());
+    }
+
+    public long responseBytes() {
+        return responseBytes.get();
+    }
+
+    @TestConfiguration
+    public static class Configuration {
+
+        @Bean
+        public MongoCommandRecorder mongoCommandRecorder() {
+            return new MongoCommandRecorder();
+        }
+
+        @Bean
+        public MongoClientOptions mongoClientOptions(MongoCommandRecorder mongoCommandRecorder) {
+            return MongoClientOptions.builder().addCommandListener(mongoCommandRecorder).build();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.digidworks.demo.repository;
+
+import com.digidworks.demo.model.Dataset;
+import com.digidworks.demo.model.User;
+import com.digidworks.demo.model.Visualization;
+import org.junit.jupiter.api.BeforeEach;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs against an empty embedded database with one user, recording the commands the test sends once its fixture is
+ * saved.
+ */
+@DataMongoTest
+@Import(MongoCommandRecorder.Configuration.class)
+abstract class MongoRepositoryTest {
+
+    @Autowired
+    protected VisualizationRepository visualizationRepository;
+
+    @Autowired
+    protected DatasetRepository datasetRepository;
+
+    @Autowired
+    protected UserRepository userRepository;
+
+    @Autowired
+    protected MongoTemplate mongoTemplate;
+
+    @Autowired
+    protected MongoCommandRecorder mongoCommandRecorder;
+
+    protected User user;
+
+    @BeforeEach
+    void setUpDatabase() {
+        mongoTemplate.getDb().drop();
+        prepareDatabase();
+
+        user = new User();
+        user.setFirstName("Test");
+        user.setLastName("User");
+        user.setEmail("test@example.com");
+        user.setRoles(Set.of(User.Role.ROLE_USER));
+        user = userRepository.save(user);
+
+        saveFixture();
+        mongoCommandRecorder.reset();
+    }
+
+    /**
+     * Called on the empty database, before anything is saved.
+     */
+    protected void prepareDatabase() {
+    }
+
+    /**
+     * Saves the documents of the test, before the recording starts.
+     */
+    protected abstract void saveFixture();
+
+    protected Dataset saveDataset(String name, List<String> header, Date createdAt) {
+        Dataset dataset = new Dataset();
+        dataset.setName(name);
+        dataset.setUser(user);
+        dataset.setHeader(header);
+        dataset.setCreatedAt(createdAt);
+        dataset.setModifiedAt(createdAt);
+
+        return datasetRepository.save(dataset);
+    }
+
+    protected Visualization saveVisualization(String name, Dataset dataset, boolean showOnDashboard, Date createdAt) {
+        Visualization visualization = new Visualization();
+        visualization.setName(name);
+        visualization.setShowOnDashboard(showOnDashboard);
+        visualization.setXAxis("x");
+        visualization.setYAxis("y");
+        visualization.setCreatedAt(createdAt);
+        visualization.setModifiedAt(createdAt);
+        visualization.setDataset(dataset);
+        visualization.setUser(user);
+
+        return visualizationRepository.save(visualization);
+    }
+}
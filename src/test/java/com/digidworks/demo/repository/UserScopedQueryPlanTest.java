@@ -0,0 +1,128 @@
+package com.digidworks.demo.repository;
+
+import com.digidworks.demo.configuration.MongoIndexConfiguration;
+import com.digidworks.demo.dto.ScrollPage;
+import com.digidworks.demo.model.Dataset;
+import com.digidworks.demo.model.Visualization;
+import com.digidworks.demo.service.KeysetPaginationService;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The queries of a user's documents must be answered from the compound indexes created on startup. Every find the
+ * repositories send is explained as it was sent, and its winning plan must scan an index and never the collection.
+ */
+@Import({MongoIndexConfiguration.class, KeysetPaginationService.class})
+class UserScopedQueryPlanTest extends MongoRepositoryTest {
+
+    private static final int DOCUMENTS = 5;
+
+    @Autowired
+    private KeysetPaginationService keysetPaginationService;
+
+    @Autowired
+    private MongoIndexConfiguration mongoIndexConfiguration;
+
+    private Visualization visualization;
+    private Dataset dataset;
+
+    @Override
+    protected void prepareDatabase() {
+        mongoIndexConfiguration.ensureIndexes();
+    }
+
+    @Override
+    protected void saveFixture() {
+        for (int i = 0; i < DOCUMENTS; i++) {
+            dataset = saveDataset("dataset " + i, List.of("x", "y"), new Date(i));
+            visualization = saveVisualization("visualization " + i, dataset, i % 2 == 0, new Date(i));
+        }
+    }
+
+    @Test
+    void dashboardUsesIndex() {
+        visualizationRepository.findAllByUserAndShowOnDashboard(user, true);
+
+        assertIndexScans(Visualization.class);
+    }
+
+    @Test
+    void visualizationListUsesIndex() {
+        visualizationRepository.findAllByUser(user, PageRequest.of(0, 2));
+
+        assertIndexScans(Visualization.class);
+    }
+
+    @Test
+    void visualizationByIdUsesIndex() {
+        visualizationRepository.findByUserAndId(user, visualization.getId());
+
+        assertIndexScans(Visualization.class);
+    }
+
+    @Test
+    void datasetListUsesIndex() {
+        datasetRepository.findAllByUser(user, PageRequest.of(0, 2));
+
+        assertIndexScans(Dataset.class);
+    }
+
+    @Test
+    void datasetByIdUsesIndex() {
+        datasetRepository.findByUserAndId(user, dataset.getId());
+
+        assertIndexScans(Dataset.class);
+    }
+
+    @Test
+    void visualizationKeysetPageUsesIndex() {
+        ScrollPage<Visualization> first = keysetPaginationService.scroll(Visualization.class, user, null, 2,
+                Visualization::getCreatedAt, Visualization::getId);
+        keysetPaginationService.scroll(Visualization.class, user, first.getNext(), 2,
+                Visualization::getCreatedAt, Visualization::getId);
+
+        assertIndexScans(Visualization.class);
+    }
+
+    @Test
+    void datasetKeysetPageUsesIndex() {
+        ScrollPage<Dataset> first = keysetPaginationService.scroll(Dataset.class, user, null, 2,
+                Dataset::getCreatedAt, Dataset::getId, "header", "columnTypes");
+        keysetPaginationService.scroll(Dataset.class, user, first.getNext(), 2,
+                Dataset::getCreatedAt, Dataset::getId, "header", "columnTypes");
+
+        assertIndexScans(Dataset.class);
+    }
+
+    /**
+     * Explains every recorded find on the collection of the given type.
+     *
+     * @param type
+     */
+    private void assertIndexScans(Class<?> type) {
+        List<BsonDocument> finds = mongoCommandRecorder.commands("find", mongoTemplate.getCollectionName(type));
+
+        assertThat(finds).isNotEmpty();
+
+        for (BsonDocument find : finds) {
+            BsonDocument command = find.clone();
+            command.keySet().removeIf(key -> key.startsWith("$") || key.equals("lsid") || key.equals("txnNumber"));
+
+            Document explain = mongoTemplate.getDb().runCommand(
+                    new BsonDocument("explain", command).append("verbosity", new BsonString("queryPlanner")));
+            String winningPlan = explain.get("queryPlanner", Document.class).get("winningPlan", Document.class).toJson();
+
+            assertThat(winningPlan).as(command.toJson()).contains("IXSCAN").doesNotContain("COLLSCAN");
+        }
+    }
+}
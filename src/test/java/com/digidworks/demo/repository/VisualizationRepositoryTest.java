@@ -0,0 +1,84 @@
+package com.digidworks.demo.repository;
+
+import com.digidworks.demo.model.Dataset;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The list and dashboard queries serialize the dataset of a visualization as its id only, so they must never load
+ * the datasets: the bytes MongoDB replies with have to stay below the size of a single dataset document.
+ */
+class VisualizationRepositoryTest extends MongoRepositoryTest {
+
+    private static final int VISUALIZATIONS = 20;
+
+    /**
+     * A dataset document of about 200KB, all of it header.
+     */
+    private static final int HEADER_SIZE = 2000;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private Dataset dataset;
+
+    @Override
+    protected void saveFixture() {
+        List<String> header = new ArrayList<>(HEADER_SIZE);
+
+        for (int i = 0; i < HEADER_SIZE; i++) {
+            header.add(String.format("a rather long column name to make the header large %05d", i));
+        }
+
+        dataset = saveDataset("large", header, new Date());
+
+        for (int i = 0; i < VISUALIZATIONS; i++) {
+            saveVisualization("visualization " + i, dataset, true, new Date());
+        }
+    }
+
+    @Test
+    void dashboardDoesNotLoadDatasets() throws Exception {
+        String json = objectMapper.writeValueAsString(visualizationRepository.findAllByUserAndShowOnDashboard(user, true));
+
+        assertNoDatasetLoaded(json);
+    }
+
+    @Test
+    void listDoesNotLoadDatasets() throws Exception {
+        String json = objectMapper.writeValueAsString(
+                visualizationRepository.findAllByUser(user, PageRequest.of(0, 50)).getContent());
+
+        assertNoDatasetLoaded(json);
+    }
+
+    @Test
+    void datasetListDoesNotLoadHeaders() {
+        datasetRepository.findAllByUser(user, PageRequest.of(0, 50));
+
+        assertThat(mongoCommandRecorder.responseBytes()).isLessThan(datasetSize());
+    }
+
+    private void assertNoDatasetLoaded(String json) {
+        String datasetCollection = mongoTemplate.getCollectionName(Dataset.class);
+
+        assertThat(json).contains("\"dataset\":\"" + dataset.getId() + "\"");
+        assertThat(mongoCommandRecorder.commands("find", datasetCollection)).isEmpty();
+        assertThat(mongoCommandRecorder.responseBytes()).isLessThan(datasetSize());
+    }
+
+    /**
+     * A lower bound of the BSON size of the dataset document.
+     *
+     * @return
+     */
+    private long datasetSize() {
+        return objectMapper.valueToTree(dataset.getHeader()).toString().length();
+    }
+}
@@ -0,0 +1,87 @@
+package com.digidworks.demo.service;
+
+import com.digidworks.demo.model.Dataset;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The raw files of a dataset read back one after the other must give the content of all of its uploads, whatever
+ * line breaks the appended files use.
+ */
+@DataMongoTest
+@Import(RawFileService.class)
+class RawFileServiceTest {
+
+    @Autowired
+    private RawFileService rawFileService;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private Dataset dataset;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate.getDb().drop();
+
+        dataset = new Dataset();
+        dataset.setId("raw-file-test");
+        dataset.setName("raw");
+        dataset.setRawFileIds(new ArrayList<>());
+    }
+
+    @Test
+    void appendedLfFileSkipsHeader() throws Exception {
+        store("x,y\n1,2\n", false);
+        store("x,y\n3,4\n", true);
+
+        assertThat(read()).isEqualTo("x,y\n1,2\n3,4\n");
+    }
+
+    @Test
+    void appendedCrLfFileSkipsHeader() throws Exception {
+        store("x,y\r\n1,2\r\n", false);
+        store("x,y\r\n3,4\r\n", true);
+
+        assertThat(read()).isEqualTo("x,y\r\n1,2\r\n3,4\r\n");
+    }
+
+    @Test
+    void appendedCrOnlyFileSkipsHeader() throws Exception {
+        store("x,y\r1,2\r", false);
+        store("x,y\r3,4\r5,6\r", true);
+
+        assertThat(read()).isEqualTo("x,y\r1,2\r\n3,4\r5,6\r");
+    }
+
+    @Test
+    void lineBreakInQuotedHeaderIsKept() throws Exception {
+        store("\"x\r1\",y\r1,2\r", false);
+        store("\"x\r1\",y\r3,4\r", true);
+
+        assertThat(read()).isEqualTo("\"x\r1\",y\r1,2\r\n3,4\r");
+    }
+
+    private void store(String content, boolean skipHeader) {
+        InputStream inputStream = new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+
+        dataset.getRawFileIds().add(rawFileService.store(dataset, inputStream, skipHeader));
+    }
+
+    private String read() throws Exception {
+        try (InputStream inputStream = rawFileService.open(dataset)) {
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}